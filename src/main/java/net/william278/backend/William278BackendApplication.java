@@ -30,6 +30,7 @@ import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.boot.web.servlet.ServletComponentScan;
 import org.springframework.data.web.config.EnableSpringDataWebSupport;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 import static org.springframework.data.web.config.EnableSpringDataWebSupport.PageSerializationMode.VIA_DTO;
 
@@ -41,6 +42,7 @@ import static org.springframework.data.web.config.EnableSpringDataWebSupport.Pag
 )
 @SpringBootApplication
 @ServletComponentScan
+@EnableScheduling
 public class William278BackendApplication {
 
     public static void main(String[] args) {
@@ -29,10 +29,13 @@ import lombok.NoArgsConstructor;
 import lombok.Setter;
 import org.jetbrains.annotations.NotNull;
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
 import org.springframework.validation.annotation.Validated;
 
 import java.net.URL;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
 
 @Setter
 @Getter
@@ -54,6 +57,10 @@ public class AppConfiguration {
     private String apiSecret;
 
     private @NotNull Path docsPath;
+    private DataSize docsCacheSize = DataSize.ofMegabytes(32);
+    private int docsInitThreads = 4;
+    private Duration docsUpdateDelay = Duration.ofSeconds(10);
+    private List<String> docsLocaleFallbacks = List.of();
 
     private String modrinthApiToken;
     private String githubApiToken;
@@ -75,5 +82,21 @@ public class AppConfiguration {
     private String s3DownloadsExpiry;
     private String s3TicketsBucket;
     private String s3TicketsExpiry;
+    private int s3UploadsExpiry = 3600;
+    private boolean contentAddressedStorage;
+    private boolean orphanCollectionEnabled;
+    private boolean orphanCollectionDryRun = true;
+    private Duration orphanCollectionMinAge = Duration.ofDays(1);
+    private double orphanCollectionDeletesPerSecond = 100;
+    private DataSize s3PartSize = DataSize.ofMegabytes(16);
+    private int s3UploadThreads = 4;
+    private String storageBackend = "s3";
+    private String storagePath = "storage";
+    private Duration storageTimeout = Duration.ofSeconds(30);
+    private Duration storageTransferTimeout = Duration.ofMinutes(30);
+    private int storageMaxConcurrency = 16;
+    private int storageQueueSize = 64;
+    private int storageMaxAttempts = 3;
+    private Duration storageRetryBackoff = Duration.ofMillis(200);
 
 }
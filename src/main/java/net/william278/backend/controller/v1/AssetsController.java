@@ -41,7 +41,7 @@ import net.william278.backend.exception.ErrorResponse;
 import net.william278.backend.exception.InvalidRole;
 import net.william278.backend.exception.NoPermission;
 import net.william278.backend.exception.NotAuthenticated;
-import net.william278.backend.service.S3Service;
+import net.william278.backend.service.StorageService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
@@ -51,6 +51,7 @@ import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
 
 @RestController
 @Tags(value = @Tag(name = "Assets"))
@@ -58,12 +59,12 @@ import java.time.Instant;
 public class AssetsController {
 
     private final AssetsRepository assets;
-    private final S3Service s3;
+    private final StorageService storage;
 
     @Autowired
-    public AssetsController(AssetsRepository assets, S3Service s3) {
+    public AssetsController(AssetsRepository assets, StorageService storage) {
         this.assets = assets;
-        this.s3 = s3;
+        this.storage = storage;
     }
 
     @Operation(
@@ -136,7 +137,7 @@ public class AssetsController {
             value = "/v1/assets/{fileName:" + Asset.PATTERN + "}",
             produces = MediaType.APPLICATION_JSON_VALUE
     )
-    public Asset putAsset(
+    public CompletableFuture<Asset> putAsset(
             @AuthenticationPrincipal User principal,
 
             @Parameter(description = "The file name of the asset.")
@@ -160,8 +161,7 @@ public class AssetsController {
         asset.setContentType(file.getContentType());
         assets.save(asset);
 
-        s3.uploadAsset(file, asset);
-        return asset;
+        return storage.uploadAsset(file, asset).thenApply(ignored -> asset);
     }
 
     @Operation(
@@ -204,7 +204,7 @@ public class AssetsController {
 
         final Asset asset = assets.findByName(fileName).orElseThrow(InvalidRole::new);
         assets.delete(asset);
-        s3.deleteAsset(asset);
+        storage.deleteAsset(asset);
         return asset;
     }
 
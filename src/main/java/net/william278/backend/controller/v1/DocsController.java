@@ -40,15 +40,19 @@ import net.william278.backend.database.repository.ProjectRepository;
 import net.william278.backend.exception.*;
 import net.william278.backend.service.ProjectDocsService;
 import org.jetbrains.annotations.NotNull;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
@@ -58,6 +62,10 @@ import java.util.Optional;
 @RequestMapping(produces = MediaType.APPLICATION_JSON_VALUE)
 public class DocsController {
 
+    // Clients may keep pages, but must revalidate them with their ETag before each reuse
+    private static final CacheControl CACHE = CacheControl.noCache().cachePublic();
+    private static final int MAX_SEARCH_RESULTS = 50;
+
     private final ProjectRepository projects;
     private final ProjectDocsService docs;
     private final AppConfiguration config;
@@ -72,7 +80,13 @@ public class DocsController {
             summary = "Get a documentation page for a project."
     )
     @ApiResponse(
-            responseCode = "200"
+            responseCode = "200",
+            description = "The page, as a DocsPage, or a RenderedDocsPage if the html format was requested.",
+            content = @Content(schema = @Schema(oneOf = {DocsPage.class, RenderedDocsPage.class}))
+    )
+    @ApiResponse(
+            responseCode = "304",
+            description = "The page hasn't changed since the version with the ETag in If-None-Match."
     )
     @ApiResponse(
             responseCode = "404",
@@ -84,13 +98,18 @@ public class DocsController {
             description = "The project does not have documentation",
             content = @Content(schema = @Schema(implementation = ErrorResponse.class))
     )
+    @ApiResponse(
+            responseCode = "503",
+            description = "The project's documentation is still warming up after a restart.",
+            content = @Content(schema = @Schema(implementation = ErrorResponse.class))
+    )
     @GetMapping(
             value = "/v1/projects/{projectSlug:" + Project.PATTERN
                     + "}/docs/{pageSlug:" + ProjectDocsService.PATTERN + "}",
             produces = {MediaType.APPLICATION_JSON_VALUE}
     )
     @CrossOrigin("*")
-    public DocsPage getProjectDocsPage(
+    public ResponseEntity<byte[]> getProjectDocsPage(
             @Parameter(description = "The slug of the project to get docs for.")
             @Pattern(regexp = Project.PATTERN)
             @PathVariable String projectSlug,
@@ -98,8 +117,15 @@ public class DocsController {
             @Parameter(description = "The slug of the docs page.")
             @PathVariable String pageSlug,
 
-            @Parameter(description = "The language code of the page.")
-            @RequestParam(defaultValue = "", required = false) String locale
+            @Parameter(description = "The language code of the page. If the page isn't translated, it's served in the "
+                    + "first fallback locale it is, with the locale served in Content-Language.")
+            @RequestParam(defaultValue = "", required = false) String locale,
+
+            @Parameter(description = "The format of the page content; either markdown, or html for rendered HTML "
+                    + "with a table of contents.")
+            @RequestParam(defaultValue = "markdown", required = false) String format,
+
+            WebRequest request
     ) {
         if (projectSlug.isBlank() || !projectSlug.matches(Project.PATTERN)) {
             throw new InvalidProject();
@@ -115,7 +141,20 @@ public class DocsController {
         if (locale.isBlank()) {
             locale = config.getDefaultDocLocale();
         }
-        return docs.getPage(project, pageSlug, locale).orElseThrow(DocsPageNotFound::new);
+        final boolean html = format.equalsIgnoreCase("html");
+        final ProjectDocsService.LocalizedPage localized = docs.getPage(project, pageSlug, locale, html)
+                .orElseThrow(DocsPageNotFound::new);
+        final ProjectDocsService.CachedPage page = localized.page();
+        final String etag = page.getETag(html);
+        if (request.checkNotModified(etag)) {
+            return null;
+        }
+        return ResponseEntity.ok()
+                .cacheControl(CACHE)
+                .eTag(etag)
+                .header(HttpHeaders.CONTENT_LANGUAGE, localized.locale())
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(html ? page.html() : page.json());
     }
 
     @Operation(
@@ -125,6 +164,10 @@ public class DocsController {
             responseCode = "200",
             description = "A map of page slugs to page titles."
     )
+    @ApiResponse(
+            responseCode = "304",
+            description = "The pages haven't changed since the version with the ETag in If-None-Match."
+    )
     @ApiResponse(
             responseCode = "404",
             description = "The project or documentation page was not found.",
@@ -135,15 +178,135 @@ public class DocsController {
             description = "The project does not have documentation",
             content = @Content(schema = @Schema(implementation = ErrorResponse.class))
     )
+    @ApiResponse(
+            responseCode = "503",
+            description = "The project's documentation is still warming up after a restart.",
+            content = @Content(schema = @Schema(implementation = ErrorResponse.class))
+    )
     @GetMapping(
             value = "/v1/projects/{projectSlug:" + Project.PATTERN + "}/docs",
             produces = {MediaType.APPLICATION_JSON_VALUE}
     )
     @CrossOrigin("*")
-    public Map<String, String> getProjectDocsPages(
+    public ResponseEntity<Map<String, String>> getProjectDocsPages(
+            @Parameter(description = "The slug of the project to get docs for.")
+            @Pattern(regexp = Project.PATTERN)
+            @PathVariable String projectSlug,
+
+            WebRequest request
+    ) {
+        if (projectSlug.isBlank() || !projectSlug.matches(Project.PATTERN)) {
+            throw new InvalidProject();
+        }
+
+        // Resolve project
+        final Project project = projects.findById(projectSlug).orElseThrow(ProjectNotFound::new);
+        if (!project.getMetadata().isDocumentation()) {
+            throw new UndocumentedProject();
+        }
+
+        final Optional<String> etag = docs.getETag(project);
+        if (etag.isPresent() && request.checkNotModified(etag.get())) {
+            return null;
+        }
+        final ResponseEntity.BodyBuilder response = ResponseEntity.ok().cacheControl(CACHE);
+        etag.ifPresent(response::eTag);
+        return response.body(docs.getPages(project));
+    }
+
+    @Operation(
+            summary = "Search a project's documentation pages."
+    )
+    @ApiResponse(
+            responseCode = "200",
+            description = "Matching pages, best match first, with an excerpt highlighting the matched words."
+    )
+    @ApiResponse(
+            responseCode = "404",
+            description = "The project was not found.",
+            content = @Content(schema = @Schema(implementation = ErrorResponse.class))
+    )
+    @ApiResponse(
+            responseCode = "400",
+            description = "The project does not have documentation",
+            content = @Content(schema = @Schema(implementation = ErrorResponse.class))
+    )
+    @ApiResponse(
+            responseCode = "503",
+            description = "The project's documentation is still warming up after a restart.",
+            content = @Content(schema = @Schema(implementation = ErrorResponse.class))
+    )
+    @GetMapping(
+            value = "/v1/projects/{projectSlug:" + Project.PATTERN + "}/docs-search",
+            produces = {MediaType.APPLICATION_JSON_VALUE}
+    )
+    @CrossOrigin("*")
+    public List<DocsSearchResult> searchProjectDocs(
+            @Parameter(description = "The slug of the project to search the docs of.")
+            @Pattern(regexp = Project.PATTERN)
+            @PathVariable String projectSlug,
+
+            @Parameter(description = "The search query.")
+            @RequestParam(value = "q") String query,
+
+            @Parameter(description = "The maximum number of results to return.")
+            @RequestParam(value = "limit", defaultValue = "10") int limit
+    ) {
+        if (projectSlug.isBlank() || !projectSlug.matches(Project.PATTERN)) {
+            throw new InvalidProject();
+        }
+
+        // Resolve project
+        final Project project = projects.findById(projectSlug).orElseThrow(ProjectNotFound::new);
+        if (!project.getMetadata().isDocumentation()) {
+            throw new UndocumentedProject();
+        }
+
+        return docs.search(project, query, Math.min(limit, MAX_SEARCH_RESULTS));
+    }
+
+    @Operation(
+            summary = "Get every documentation page of a project in one locale, as a single gzipped bundle."
+    )
+    @ApiResponse(
+            responseCode = "200",
+            description = "The pages, gzip-encoded unless the client doesn't accept it.",
+            content = @Content(schema = @Schema(implementation = DocsBundle.class))
+    )
+    @ApiResponse(
+            responseCode = "304",
+            description = "The docs haven't changed since the version with the ETag in If-None-Match."
+    )
+    @ApiResponse(
+            responseCode = "404",
+            description = "The project was not found, or has no pages in the locale.",
+            content = @Content(schema = @Schema(implementation = ErrorResponse.class))
+    )
+    @ApiResponse(
+            responseCode = "400",
+            description = "The project does not have documentation",
+            content = @Content(schema = @Schema(implementation = ErrorResponse.class))
+    )
+    @ApiResponse(
+            responseCode = "503",
+            description = "The project's documentation is still warming up after a restart.",
+            content = @Content(schema = @Schema(implementation = ErrorResponse.class))
+    )
+    @GetMapping(
+            value = "/v1/projects/{projectSlug:" + Project.PATTERN + "}/docs-bundle",
+            produces = {MediaType.APPLICATION_JSON_VALUE}
+    )
+    @CrossOrigin("*")
+    public ResponseEntity<byte[]> getProjectDocsBundle(
             @Parameter(description = "The slug of the project to get docs for.")
             @Pattern(regexp = Project.PATTERN)
-            @PathVariable String projectSlug
+            @PathVariable String projectSlug,
+
+            @Parameter(description = "The language code of the pages. Untranslated pages fall back as they do when "
+                    + "getting a single page.")
+            @RequestParam(defaultValue = "", required = false) String locale,
+
+            WebRequest request
     ) {
         if (projectSlug.isBlank() || !projectSlug.matches(Project.PATTERN)) {
             throw new InvalidProject();
@@ -155,7 +318,26 @@ public class DocsController {
             throw new UndocumentedProject();
         }
 
-        return docs.getPages(project);
+        // Resolve lang code
+        if (locale.isBlank()) {
+            locale = config.getDefaultDocLocale();
+        }
+        final ProjectDocsService.CachedBundle bundle = docs.getBundle(project, locale)
+                .orElseThrow(DocsPageNotFound::new);
+        if (request.checkNotModified(bundle.getETag())) {
+            return null;
+        }
+        final ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .cacheControl(CACHE)
+                .eTag(bundle.getETag())
+                .header(HttpHeaders.CONTENT_LANGUAGE, String.join(", ", bundle.locales()))
+                .varyBy(HttpHeaders.ACCEPT_ENCODING)
+                .contentType(MediaType.APPLICATION_JSON);
+        final String accepted = request.getHeader(HttpHeaders.ACCEPT_ENCODING);
+        if (accepted == null || !accepted.toLowerCase(Locale.ENGLISH).contains("gzip")) {
+            return response.body(bundle.decompress());
+        }
+        return response.header(HttpHeaders.CONTENT_ENCODING, "gzip").body(bundle.gzip());
     }
 
     @Operation(
@@ -165,7 +347,8 @@ public class DocsController {
             }
     )
     @ApiResponse(
-            responseCode = "200"
+            responseCode = "202",
+            description = "The update was queued, and will be pulled shortly."
     )
     @ApiResponse(
             responseCode = "404",
@@ -211,10 +394,8 @@ public class DocsController {
             throw new UndocumentedProject();
         }
 
-        if (docs.updateWiki(project)) {
-            return ResponseEntity.ok().build();
-        }
-        throw new FailedToUpdateDocs();
+        docs.scheduleUpdate(project);
+        return ResponseEntity.accepted().build();
     }
 
     @Schema(
@@ -263,4 +444,99 @@ public class DocsController {
         }
 
     }
+
+    @Schema(
+            name = "RenderedDocsPage",
+            description = "A documentation page rendered to HTML"
+    )
+    public record RenderedDocsPage(
+            @Schema(
+                    description = "The slug of the page",
+                    example = "example-page",
+                    pattern = ProjectDocsService.PATTERN
+            )
+            @NotNull String slug,
+            @Schema(
+                    description = "The title of the page",
+                    example = "Example Page"
+            )
+            @NotNull String title,
+            @Schema(
+                    description = "The HTML content of the page, with raw HTML from the markdown escaped",
+                    example = "<h1 id=\"example\">Example</h1>\n<p>This is an example page</p>"
+            )
+            @NotNull String html,
+            @Schema(
+                    description = "The headings of the page, in order"
+            )
+            @NotNull List<DocsHeading> toc
+    ) {
+    }
+
+    @Schema(
+            name = "DocsHeading",
+            description = "A heading in a documentation page"
+    )
+    public record DocsHeading(
+            @Schema(
+                    description = "The level of the heading, from 1 to 6",
+                    example = "2"
+            )
+            int level,
+            @Schema(
+                    description = "The text of the heading",
+                    example = "Getting started"
+            )
+            @NotNull String title,
+            @Schema(
+                    description = "The ID of the heading in the page HTML, to link to with a fragment",
+                    example = "getting-started"
+            )
+            @NotNull String anchor
+    ) {
+    }
+
+    @Schema(
+            name = "DocsBundle",
+            description = "Every documentation page of a project in one locale"
+    )
+    public record DocsBundle(
+            @Schema(
+                    description = "The wiki commit the bundle was built at"
+            )
+            @NotNull String commit,
+            @Schema(
+                    description = "A map of page slugs, as requested in the bundle's locale, to pages"
+            )
+            @NotNull Map<String, DocsPage> pages
+    ) {
+    }
+
+    @Schema(
+            name = "DocsSearchResult",
+            description = "A documentation page matching a search"
+    )
+    public record DocsSearchResult(
+            @Schema(
+                    description = "The slug of the page",
+                    example = "example-page",
+                    pattern = ProjectDocsService.PATTERN
+            )
+            @NotNull String slug,
+            @Schema(
+                    description = "The title of the page",
+                    example = "Example Page"
+            )
+            @NotNull String title,
+            @Schema(
+                    description = "How well the page matches the search, relative to the other results"
+            )
+            double score,
+            @Schema(
+                    description = "An HTML-escaped excerpt of the page, with matched words wrapped in <mark> tags",
+                    example = "Use /sethome to <mark>set</mark> a <mark>home</mark>"
+            )
+            @NotNull String snippet
+    ) {
+    }
 }
@@ -42,18 +42,17 @@ import net.william278.backend.database.repository.DistributionRepository;
 import net.william278.backend.database.repository.ProjectRepository;
 import net.william278.backend.database.repository.VersionRepository;
 import net.william278.backend.exception.*;
-import net.william278.backend.service.S3Service;
+import net.william278.backend.service.StorageService;
 import net.william278.backend.util.HTTPUtils;
 import net.william278.backend.util.MediaTypeUtils;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.Resource;
 import org.springframework.http.*;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
 
 import java.time.Duration;
 import java.time.Instant;
-import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
 
 @Slf4j
@@ -67,16 +66,17 @@ public class DownloadController {
     private final VersionRepository versions;
     private final ChannelRepository channels;
     private final DistributionRepository distributions;
-    private final S3Service s3;
+    private final StorageService storage;
 
     @Autowired
     public DownloadController(ProjectRepository projects, VersionRepository versions,
-                              ChannelRepository channels, DistributionRepository distributions, S3Service s3) {
+                              ChannelRepository channels, DistributionRepository distributions,
+                              StorageService storage) {
         this.projects = projects;
         this.versions = versions;
         this.channels = channels;
         this.distributions = distributions;
-        this.s3 = s3;
+        this.storage = storage;
     }
 
     @Operation(
@@ -123,7 +123,7 @@ public class DownloadController {
             }
     )
     @CrossOrigin
-    public ResponseEntity<?> download(
+    public CompletableFuture<ResponseEntity<Resource>> download(
             @AuthenticationPrincipal User principal,
 
             @Parameter(name = "project", description = "The project identifier.", example = "HuskHomes")
@@ -144,55 +144,44 @@ public class DownloadController {
     ) {
         final Project project = projects.findById(projectSlug).orElseThrow(ProjectNotFound::new);
         final Channel channel = channels.findChannelByName(channelName).orElseThrow(ChannelNotFound::new);
-        final Version version = versions.findByProjectAndChannelAndName(project, channel, versionName)
-                .orElseThrow(VersionNotFound::new);
         final Distribution dist = distributions.findDistributionByNameAndProjectOrderBySortingWeightDesc(distributionName, project)
                 .orElseThrow(DistributionNotFound::new);
 
-        // Check the version has this distribution
-        if (!version.hasDistribution(dist)) {
-            throw new DistributionNotFound();
-        }
+        // Look up just the download, rather than the whole version and its changelog
+        final VersionRepository.DownloadTarget target = versions.findDownloadTarget(project, channel, versionName, dist)
+                .orElseThrow(() -> versions.existsByProjectAndChannelAndName(project, channel, versionName)
+                        ? new DistributionNotFound() : new VersionNotFound());
 
         // Restrict download if the version is restricted and the user is not authenticated
-        if (version.isRestricted()) {
+        if (project.isRestricted()) {
             if (principal == null) {
                 throw new NotAuthenticated();
             }
-            if (!version.canDownload(principal)) {
+            if (!principal.hasProjectPermission(project)) {
                 throw new NoPermission();
             }
         }
 
         // Increment the download count for the version
-        CompletableFuture.runAsync(() -> incrementVersionDownloads(version));
-
-        try {
-            final Download download = version.getDownloadFor(dist);
-            return new DownloadArchive(
-                    s3, version.getDownloadObjectName(dist, download),
-                    version.getTimestamp(), download, CACHE
-            );
-        } catch (Throwable e) {
-            log.warn("Failed to serve download version archive", e);
-            throw new DownloadFailed();
-        }
+        CompletableFuture.runAsync(() -> versions.incrementDownloadCount(target.getVersionId()));
+
+        // Open the archive off the request thread, only responding once the stream is ready
+        final Download download = target.getDownload();
+        final String objectName = Version.getDownloadObjectName(project, channel, target.getName(), dist, download);
+        return storage.downloadVersion(objectName).thenApply(resource -> new DownloadArchive(
+                resource.orElseThrow(() -> {
+                    log.warn("Version archive file '{}' is missing from storage", objectName);
+                    return new DownloadFailed();
+                }), target.getTimestamp(), download, CACHE
+        ));
     }
 
-    private void incrementVersionDownloads(@NotNull Version version) {
-        version.incrementDownloadCount();
-        versions.save(version);
-    }
-
-    private static class DownloadArchive extends ResponseEntity<InputStreamResource> {
+    private static class DownloadArchive extends ResponseEntity<Resource> {
 
-        private DownloadArchive(@NotNull S3Service service, @NotNull String objectName, @NotNull Instant timestamp,
+        private DownloadArchive(@NotNull Resource resource, @NotNull Instant timestamp,
                                 @NotNull Download download, @NotNull CacheControl cache) {
             super(
-                    new InputStreamResource(
-                            () -> Objects.requireNonNull(service.downloadVersion(objectName)),
-                            "Couldn't stream version archive file '%s' from S3".formatted(objectName)
-                    ),
+                    resource,
                     headersFor(download, timestamp, cache), HttpStatus.OK
             );
         }
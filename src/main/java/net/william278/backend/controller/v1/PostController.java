@@ -39,15 +39,25 @@ import net.william278.backend.database.model.User;
 import net.william278.backend.database.repository.PostRepository;
 import net.william278.backend.database.repository.ProjectRepository;
 import net.william278.backend.exception.*;
+import net.william278.backend.service.FeedService;
+import net.william278.backend.service.PostSearchService;
+import net.william278.backend.service.PostService;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.http.CacheControl;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
 import java.time.Instant;
+import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
 
 @RestController
@@ -55,13 +65,22 @@ import java.util.Optional;
 @RequestMapping(produces = MediaType.APPLICATION_JSON_VALUE)
 public class PostController {
 
+    private static final int MAX_SEARCH_PAGE_SIZE = 100;
+
     private final PostRepository posts;
     private final ProjectRepository projects;
+    private final PostSearchService search;
+    private final PostService postService;
+    private final FeedService feeds;
 
     @Autowired
-    public PostController(PostRepository posts, ProjectRepository projects) {
+    public PostController(PostRepository posts, ProjectRepository projects, PostSearchService search,
+                          PostService postService, FeedService feeds) {
         this.posts = posts;
         this.projects = projects;
+        this.search = search;
+        this.postService = postService;
+        this.feeds = feeds;
     }
 
     @Operation(
@@ -72,15 +91,50 @@ public class PostController {
             value = "/v1/posts",
             produces = {MediaType.APPLICATION_JSON_VALUE}
     )
-    public Page<Post> findPaginated(
+    public Page<PostSummary> findPaginated(
             @RequestParam(value = "page", defaultValue = "0") int page,
             @RequestParam(value = "size", defaultValue = "10") int size,
             @RequestParam(value = "categoryFilter", required = false) String categoryFilter
     ) {
-        if (categoryFilter != null) {
-            return posts.findAllByCategoryOrderByTimestampDesc(PageRequest.of(page, size), categoryFilter);
+        // Fetch a slice without counting, and take the total from the cached category counts
+        final PageRequest request = PageRequest.of(page, size);
+        return new PageImpl<>(posts.findSummarySlice(categoryFilter, null, request).map(PostSummary::from)
+                .getContent(), request, postService.getPostCount(categoryFilter));
+    }
+
+    @Operation(
+            summary = "Get the post categories, with how many posts are in each and when the latest was posted."
+    )
+    @GetMapping(
+            value = "/v1/posts/categories",
+            produces = {MediaType.APPLICATION_JSON_VALUE}
+    )
+    public List<PostCategory> getCategories() {
+        return postService.getCategories();
+    }
+
+    @Operation(
+            summary = "Search posts by their title and body, including version update changelogs."
+    )
+    @ApiResponse(
+            responseCode = "200",
+            description = "A page of matching posts, best match first, with an excerpt highlighting the matched words."
+    )
+    @GetMapping(
+            value = "/v1/posts/search",
+            produces = {MediaType.APPLICATION_JSON_VALUE}
+    )
+    public Page<PostSearchResult> searchPosts(
+            @Parameter(description = "The search query.")
+            @RequestParam(value = "q") String query,
+
+            @RequestParam(value = "page", defaultValue = "0") int page,
+            @RequestParam(value = "size", defaultValue = "10") int size
+    ) {
+        if (size > MAX_SEARCH_PAGE_SIZE) {
+            throw new BatchTooLarge();
         }
-        return posts.findAllByOrderByTimestampDesc(PageRequest.of(page, size));
+        return search.search(query, PageRequest.of(page, size));
     }
 
     @Operation(
@@ -91,7 +145,7 @@ public class PostController {
             value = "/v1/projects/{projectSlug:" + Project.PATTERN + "}/posts",
             produces = {MediaType.APPLICATION_JSON_VALUE}
     )
-    public Page<Post> findProjectPaginated(
+    public Page<PostSummary> findProjectPaginated(
             @RequestParam(value = "page", defaultValue = "0") int page,
             @RequestParam(value = "size", defaultValue = "10") int size,
 
@@ -99,8 +153,91 @@ public class PostController {
             @Pattern(regexp = Project.PATTERN)
             @PathVariable String projectSlug
     ) {
-        return posts.findAllByAssociatedProjectOrderByTimestampDesc(PageRequest.of(page, size),
-                projects.findById(projectSlug).orElseThrow(ProjectNotFound::new));
+        final Project project = projects.findById(projectSlug).orElseThrow(ProjectNotFound::new);
+        return posts.findSummaries(null, project.getSlug(), PageRequest.of(page, size)).map(PostSummary::from);
+    }
+
+    @Operation(
+            summary = "Get an Atom or RSS feed of the latest posts."
+    )
+    @ApiResponse(
+            responseCode = "200",
+            description = "The feed."
+    )
+    @ApiResponse(
+            responseCode = "304",
+            description = "The feed hasn't changed since the version in If-None-Match or If-Modified-Since."
+    )
+    @GetMapping(
+            value = "/v1/posts/feed",
+            produces = {MediaType.APPLICATION_ATOM_XML_VALUE, MediaType.APPLICATION_RSS_XML_VALUE,
+                    MediaType.APPLICATION_XML_VALUE}
+    )
+    @CrossOrigin("*")
+    public ResponseEntity<byte[]> getFeed(
+            @Parameter(description = "The feed format; either atom or rss.")
+            @RequestParam(value = "format", defaultValue = "atom") String format,
+
+            @Parameter(description = "A category to only include posts from.")
+            @RequestParam(value = "categoryFilter", required = false) String categoryFilter,
+
+            WebRequest request
+    ) {
+        final FeedService.FeedKey key = categoryFilter != null
+                ? new FeedService.FeedKey(FeedService.Scope.CATEGORY, categoryFilter) : FeedService.FeedKey.ALL;
+        return serveFeed(feeds.getFeed(key).orElseThrow(PostNotFound::new), format, request);
+    }
+
+    @Operation(
+            summary = "Get an Atom or RSS feed of the latest posts related to a specified project."
+    )
+    @ApiResponse(
+            responseCode = "200",
+            description = "The feed."
+    )
+    @ApiResponse(
+            responseCode = "304",
+            description = "The feed hasn't changed since the version in If-None-Match or If-Modified-Since."
+    )
+    @ApiResponse(
+            responseCode = "404",
+            description = "The project was not found.",
+            content = @Content(schema = @Schema(implementation = ErrorResponse.class))
+    )
+    @GetMapping(
+            value = "/v1/projects/{projectSlug:" + Project.PATTERN + "}/posts/feed",
+            produces = {MediaType.APPLICATION_ATOM_XML_VALUE, MediaType.APPLICATION_RSS_XML_VALUE,
+                    MediaType.APPLICATION_XML_VALUE}
+    )
+    @CrossOrigin("*")
+    public ResponseEntity<byte[]> getProjectFeed(
+            @Parameter(description = "The slug of the project to get the feed for.")
+            @Pattern(regexp = Project.PATTERN)
+            @PathVariable String projectSlug,
+
+            @Parameter(description = "The feed format; either atom or rss.")
+            @RequestParam(value = "format", defaultValue = "atom") String format,
+
+            WebRequest request
+    ) {
+        final FeedService.FeedKey key = new FeedService.FeedKey(FeedService.Scope.PROJECT, projectSlug);
+        return serveFeed(feeds.getFeed(key).orElseThrow(ProjectNotFound::new), format, request);
+    }
+
+    @Nullable
+    private ResponseEntity<byte[]> serveFeed(@NotNull FeedService.Feed feed, @NotNull String format,
+                                             @NotNull WebRequest request) {
+        final boolean rss = format.equalsIgnoreCase("rss");
+        final String etag = rss ? feed.rssETag() : feed.atomETag();
+        if (request.checkNotModified(etag, feed.lastModified().toEpochMilli())) {
+            return null;
+        }
+        return ResponseEntity.ok()
+                .cacheControl(CacheControl.noCache().cachePublic())
+                .eTag(etag)
+                .lastModified(feed.lastModified())
+                .contentType(rss ? MediaType.APPLICATION_RSS_XML : MediaType.APPLICATION_ATOM_XML)
+                .body(rss ? feed.rss() : feed.atom());
     }
 
     @Operation(
@@ -169,7 +306,7 @@ public class PostController {
         }
 
         final Post post = posts.findBySlug(postSlug).orElseThrow(PostNotFound::new);
-        posts.deleteById(post.getId());
+        postService.delete(post);
         return post;
     }
 
@@ -226,9 +363,119 @@ public class PostController {
         existingPost.ifPresent((found) -> post.setId(found.getId()));
         post.setAuthor(principal);
         post.setTimestamp(Instant.now());
-        posts.save(post);
+        postService.save(post);
 
         return ResponseEntity.status(existingPost.isEmpty() ? 201 : 200).body(post);
     }
 
+    @Schema(
+            name = "PostSummary",
+            description = "A news post, as shown in a list of posts, with an excerpt of its body."
+    )
+    public record PostSummary(
+            @Schema(
+                    description = "A slug for this news post.",
+                    example = "news-post-dec-1-2024"
+            )
+            @NotNull String slug,
+            @Schema(
+                    description = "The title of this post"
+            )
+            @NotNull String title,
+            @Schema(
+                    description = "The start of the post body, cut at a word boundary"
+            )
+            @NotNull String excerpt,
+            @Schema(
+                    description = "Timestamp of the post."
+            )
+            @NotNull Instant timestamp,
+            @Schema(
+                    description = "Category string of this post."
+            )
+            @NotNull String category,
+            @Schema(
+                    description = "A URL for the main post image.",
+                    requiredMode = Schema.RequiredMode.NOT_REQUIRED
+            )
+            @Nullable String imageUrl,
+            @Schema(
+                    description = "The author of this post, if there is one",
+                    requiredMode = Schema.RequiredMode.NOT_REQUIRED
+            )
+            @Nullable String authorName,
+            @Schema(
+                    description = "Avatar of the author of the post",
+                    requiredMode = Schema.RequiredMode.NOT_REQUIRED
+            )
+            @Nullable String authorAvatar,
+            @Schema(
+                    description = "The slug of the project associated with this post.",
+                    requiredMode = Schema.RequiredMode.NOT_REQUIRED
+            )
+            @Nullable String associatedProjectSlug,
+            @Schema(
+                    description = "Whether this post is a version release post."
+            )
+            boolean isVersionUpdate
+    ) {
+
+        @NotNull
+        public static PostSummary from(@NotNull PostRepository.Summary summary) {
+            return new PostSummary(
+                    summary.getSlug(),
+                    Objects.requireNonNullElse(summary.getTitle(), ""),
+                    Objects.requireNonNullElse(summary.getExcerpt(), ""),
+                    summary.getTimestamp(),
+                    summary.getCategory(),
+                    summary.getImageUrl(),
+                    summary.getAuthorName(),
+                    summary.getAuthorId() != null
+                            ? User.getAvatar(summary.getAuthorId(), summary.getAuthorAvatar()).toString() : null,
+                    summary.getProjectSlug(),
+                    summary.isVersionUpdate()
+            );
+        }
+
+    }
+
+    @Schema(
+            name = "PostCategory",
+            description = "A category of posts."
+    )
+    public record PostCategory(
+            @Schema(
+                    description = "Category string of the posts.",
+                    example = "news"
+            )
+            @NotNull String name,
+            @Schema(
+                    description = "The number of posts in the category."
+            )
+            long count,
+            @Schema(
+                    description = "Timestamp of the latest post in the category."
+            )
+            @NotNull Instant latest
+    ) {
+    }
+
+    @Schema(
+            name = "PostSearchResult",
+            description = "A post matching a search"
+    )
+    public record PostSearchResult(
+            @NotNull PostSummary post,
+            @Schema(
+                    description = "How well the post matches the search, relative to the other results"
+            )
+            double score,
+            @Schema(
+                    description = "An HTML-escaped excerpt of the post, with matched words wrapped in <mark> tags",
+                    example = "Fixed <mark>homes</mark> not saving on <mark>Velocity</mark>"
+            )
+            @NotNull String snippet
+    ) {
+    }
+
 }
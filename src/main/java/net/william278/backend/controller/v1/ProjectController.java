@@ -33,22 +33,27 @@ import io.swagger.v3.oas.annotations.security.SecurityRequirement;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import io.swagger.v3.oas.annotations.tags.Tags;
 import jakarta.validation.constraints.Pattern;
-import net.william278.backend.database.model.Channel;
-import net.william278.backend.database.model.Page;
-import net.william278.backend.database.model.Project;
-import net.william278.backend.database.model.User;
+import net.william278.backend.database.model.*;
 import net.william278.backend.database.repository.ChannelRepository;
+import net.william278.backend.database.repository.DownloadRepository;
 import net.william278.backend.database.repository.PageRepository;
 import net.william278.backend.database.repository.ProjectRepository;
 import net.william278.backend.exception.*;
+import net.william278.backend.service.BlobService;
 import net.william278.backend.service.GitHubDataService;
+import net.william278.backend.service.PostService;
+import net.william278.backend.service.ProjectBundleService;
 import net.william278.backend.service.StatsService;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.MediaType;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.stream.Collectors;
 
 @RestController
@@ -61,14 +66,22 @@ public class ProjectController {
     private final GitHubDataService github;
     private final StatsService statsService;
     private final PageRepository pages;
+    private final PostService posts;
+    private final ProjectBundleService bundles;
+    private final DownloadRepository downloads;
+    private final BlobService blobs;
 
     @Autowired
-    public ProjectController(ProjectRepository projects, ChannelRepository channels, GitHubDataService github, StatsService statsService, PageRepository pages) {
+    public ProjectController(ProjectRepository projects, ChannelRepository channels, GitHubDataService github, StatsService statsService, PageRepository pages, PostService posts, ProjectBundleService bundles, DownloadRepository downloads, BlobService blobs) {
         this.projects = projects;
         this.channels = channels;
         this.github = github;
         this.statsService = statsService;
         this.pages = pages;
+        this.posts = posts;
+        this.bundles = bundles;
+        this.downloads = downloads;
+        this.blobs = blobs;
     }
 
     @Operation(
@@ -110,6 +123,30 @@ public class ProjectController {
         return projects.findById(projectSlug).map(p -> p.updateStats(statsService)).orElseThrow(ProjectNotFound::new);
     }
 
+    @Operation(
+            summary = "Get a project with its page, distributions, latest posts and latest versions, for its landing page."
+    )
+    @ApiResponse(
+            responseCode = "200"
+    )
+    @ApiResponse(
+            responseCode = "404",
+            description = "The project was not found.",
+            content = @Content(schema = @Schema(implementation = ErrorResponse.class))
+    )
+    @GetMapping(
+            value = "/v1/projects/{projectSlug:" + Project.PATTERN + "}/bundle",
+            produces = {MediaType.APPLICATION_JSON_VALUE}
+    )
+    @CrossOrigin(value = "*", allowCredentials = "false")
+    public ProjectBundle getProjectBundle(
+            @Parameter(description = "The slug of the project to get the bundle for.")
+            @Pattern(regexp = Project.PATTERN)
+            @PathVariable String projectSlug
+    ) {
+        return bundles.getBundle(projectSlug);
+    }
+
     @Operation(
             summary = "Create or update a project.",
             security = @SecurityRequirement(name = "OAuth2")
@@ -156,10 +193,14 @@ public class ProjectController {
         }
 
         // Update release channels
-        projects.findById(project.getSlug()).ifPresent(ex -> project.setReleaseChannels(ex.getReleaseChannels()
+        final Optional<Project> existing = projects.findById(project.getSlug());
+        existing.ifPresent(ex -> project.setReleaseChannels(ex.getReleaseChannels()
                 .stream().map(r -> channels.findChannelByName(r).orElse(channels.save(new Channel(r))))
                 .collect(Collectors.toSet())));
 
+        // Saving merges into the same managed instance, so note the old name first
+        final String previousName = existing.map(ex -> ex.getMetadata().getName()).orElse(null);
+
         // Update README
         if (project.getMetadata().isPullReadmeFromGithub()) {
             final Project.Metadata metadata = project.getMetadata();
@@ -168,7 +209,14 @@ public class ProjectController {
         }
 
         project.setSlug(projectSlug);
-        return projects.save(project);
+        final Project saved = projects.save(project);
+        bundles.invalidate(projectSlug);
+
+        // Version update posts store their title, so update them if the project was renamed
+        if (previousName != null && !previousName.equals(saved.getMetadata().getName())) {
+            posts.updateVersionTitles(saved);
+        }
+        return saved;
     }
 
     @Operation(
@@ -212,7 +260,10 @@ public class ProjectController {
             throw new NoPermission();
         }
         final Project project = projects.findById(projectSlug).orElseThrow(ProjectNotFound::new);
+        final List<String> blobReferences = downloads.findBlobReferences(project);
         projects.deleteById(projectSlug);
+        blobReferences.forEach(blobs::release);
+        bundles.invalidate(projectSlug);
         return project;
     }
 
@@ -237,8 +288,8 @@ public class ProjectController {
             @Pattern(regexp = Project.PATTERN)
             @PathVariable String projectSlug
     ) {
-        return pages.findByProject(projects.findById(projectSlug).map(p -> p.updateStats(statsService))
-                .orElseThrow(ProjectNotFound::new)).orElseThrow(PageNotFound::new);
+        return pages.findByProject(projects.findById(projectSlug).orElseThrow(ProjectNotFound::new))
+                .orElseThrow(PageNotFound::new);
     }
 
     @Operation(
@@ -287,7 +338,9 @@ public class ProjectController {
         final Project project = projects.findById(projectSlug).orElseThrow(ProjectNotFound::new);
         pages.findByProject(project).ifPresent(found -> page.setId(found.getId()));
         page.setProject(project);
-        return pages.save(page);
+        final Page saved = pages.save(page);
+        bundles.invalidate(projectSlug);
+        return saved;
     }
 
     @Operation(
@@ -334,7 +387,26 @@ public class ProjectController {
         final Page page = projects.findById(projectSlug).map(pages::findByProject)
                 .orElseThrow(PageNotFound::new).orElseThrow(ProjectNotFound::new);
         pages.deleteById(page.getId());
+        bundles.invalidate(projectSlug);
         return page;
     }
 
+    @Schema(
+            name = "ProjectBundle",
+            description = "A project, with everything needed to display its landing page."
+    )
+    public record ProjectBundle(
+            @Schema(description = "The project.")
+            @NotNull Project project,
+            @Schema(description = "The project's page, if it has one.")
+            @Nullable Page page,
+            @Schema(description = "The project's distributions.")
+            @NotNull List<Distribution> distributions,
+            @Schema(description = "The project's latest posts.")
+            @NotNull List<PostController.PostSummary> posts,
+            @Schema(description = "The latest version of the project on each of its release channels.")
+            @NotNull Map<String, Version> latestVersions
+    ) {
+    }
+
 }
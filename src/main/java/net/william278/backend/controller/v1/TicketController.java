@@ -37,7 +37,8 @@ import net.william278.backend.database.model.User;
 import net.william278.backend.database.repository.TicketRepository;
 import net.william278.backend.database.repository.UsersRepository;
 import net.william278.backend.exception.*;
-import net.william278.backend.service.S3Service;
+import net.william278.backend.service.StorageService;
+import org.jetbrains.annotations.NotNull;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.http.MediaType;
@@ -45,19 +46,24 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 @RestController
 @Tags(value = @Tag(name = "Support Tickets"))
 @RequestMapping(produces = MediaType.APPLICATION_JSON_VALUE)
 public class TicketController {
 
+    private static final int MAX_TRANSCRIPT_BATCH = 100;
+
     private final TicketRepository tickets;
     private final UsersRepository users;
-    private final S3Service s3;
+    private final StorageService storage;
 
-    public TicketController(TicketRepository tickets, UsersRepository users, S3Service s3) {
+    public TicketController(TicketRepository tickets, UsersRepository users, StorageService storage) {
         this.tickets = tickets;
         this.users = users;
-        this.s3 = s3;
+        this.storage = storage;
     }
 
     @Operation(
@@ -239,7 +245,7 @@ public class TicketController {
         }
 
         // Delete ticket transcript
-        s3.deleteTranscript(ticket.getId());
+        storage.deleteTranscript(ticket.getId());
         tickets.delete(ticket);
 
         return ResponseEntity.ok().build();
@@ -264,7 +270,7 @@ public class TicketController {
             content = @Content(schema = @Schema(implementation = ErrorResponse.class))
     )
     @CrossOrigin
-    public String getTranscriptUrl(
+    public CompletableFuture<String> getTranscriptUrl(
             @AuthenticationPrincipal User principal,
 
             @Parameter(description = "The number of the ticket to get a transcript for")
@@ -279,7 +285,76 @@ public class TicketController {
             throw new NoPermission();
         }
 
-        return s3.getTranscriptUrl(ticket.getId()).orElseThrow(TicketNotFound::new);
+        return storage.getTranscriptUrl(ticket.getId()).thenApply(url -> url.orElseThrow(TicketNotFound::new));
+    }
+
+    @Operation(
+            summary = "Get the transcript URLs of a page of tickets at once",
+            security = @SecurityRequirement(name = "OAuth2")
+    )
+    @GetMapping(
+            value = "/v1/tickets/transcripts",
+            produces = {MediaType.APPLICATION_JSON_VALUE}
+    )
+    @ApiResponse(
+            responseCode = "400",
+            description = "More than " + MAX_TRANSCRIPT_BATCH + " tickets were requested.",
+            content = @Content(schema = @Schema(implementation = ErrorResponse.class))
+    )
+    @ApiResponse(
+            responseCode = "401",
+            description = "The user is not logged in.",
+            content = @Content(schema = @Schema(implementation = ErrorResponse.class))
+    )
+    @ApiResponse(
+            responseCode = "403",
+            description = "The user isn't the creator of every ticket, or a staff member.",
+            content = @Content(schema = @Schema(implementation = ErrorResponse.class))
+    )
+    @ApiResponse(
+            responseCode = "404",
+            description = "One of the tickets doesn't exist.",
+            content = @Content(schema = @Schema(implementation = ErrorResponse.class))
+    )
+    @CrossOrigin
+    public CompletableFuture<List<TicketTranscript>> getTranscriptUrls(
+            @AuthenticationPrincipal User principal,
+
+            @Parameter(description = "The numbers of the tickets to get transcripts for")
+            @RequestParam(value = "ticketNumbers") List<String> ticketNumbers
+    ) {
+        if (principal == null) {
+            throw new NotAuthenticated();
+        }
+        if (ticketNumbers.size() > MAX_TRANSCRIPT_BATCH) {
+            throw new BatchTooLarge();
+        }
+
+        final List<Ticket> found = tickets.findAllById(ticketNumbers);
+        if (found.size() < ticketNumbers.stream().distinct().count()) {
+            throw new TicketNotFound();
+        }
+        if (!found.stream().allMatch(ticket -> ticket.canUserAccess(principal))) {
+            throw new NoPermission();
+        }
+
+        // Tickets without a transcript are left out
+        return storage.getTranscriptUrls(found.stream().map(Ticket::getId).toList()).thenApply(urls -> found.stream()
+                .filter(ticket -> urls.containsKey(ticket.getId()))
+                .map(ticket -> new TicketTranscript(ticket.getId(), urls.get(ticket.getId())))
+                .toList());
+    }
+
+    @Schema(
+            name = "TicketTranscript",
+            description = "The URL of a ticket's transcript."
+    )
+    public record TicketTranscript(
+            @Schema(description = "The ticket number.")
+            long ticketNumber,
+            @Schema(description = "The URL of the ticket's transcript, valid for a limited time.")
+            @NotNull String url
+    ) {
     }
 
 
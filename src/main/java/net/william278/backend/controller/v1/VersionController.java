@@ -24,6 +24,9 @@
 
 package net.william278.backend.controller.v1;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.media.Content;
@@ -38,23 +41,40 @@ import net.william278.backend.configuration.AppConfiguration;
 import net.william278.backend.database.model.*;
 import net.william278.backend.database.repository.*;
 import net.william278.backend.exception.*;
-import net.william278.backend.service.S3Service;
+import net.william278.backend.service.BlobService;
+import net.william278.backend.service.PostService;
+import net.william278.backend.service.ProjectBundleService;
+import net.william278.backend.service.StorageService;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.security.crypto.codec.Utf8;
-import org.springframework.util.DigestUtils;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
+import java.time.DateTimeException;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 @RestController
 @Tags(value = @Tag(name = "Project Versions"))
@@ -63,6 +83,9 @@ public class VersionController {
 
     private static final Logger log = LoggerFactory.getLogger(VersionController.class);
     private static final String DEFAULT_CONTENT_TYPE = "application/java-archive";
+    private static final String MD5_PATTERN = "[a-f0-9]{32}";
+    private static final int MAX_VERSION_PAGE_SIZE = 100;
+    private static final String INCLUDE_CHANGELOG = "changelog";
 
     private final AppConfiguration config;
     private final ProjectRepository projects;
@@ -70,13 +93,18 @@ public class VersionController {
     private final VersionRepository versions;
     private final DistributionRepository distributions;
     private final DownloadRepository downloads;
-    private final PostRepository posts;
-    private final S3Service s3;
+    private final PostService posts;
+    private final StorageService storage;
+    private final BlobService blobs;
+    private final ProjectBundleService bundles;
+    // Reserved uploads are held in memory, so each must be finalized on the node that reserved it
+    private final Cache<String, Version> pendingUploads;
 
     @Autowired
     public VersionController(AppConfiguration config, ProjectRepository projects, ChannelRepository channels,
                              VersionRepository versions, DistributionRepository distributions,
-                             DownloadRepository downloads, PostRepository posts, S3Service s3) {
+                             DownloadRepository downloads, PostService posts, StorageService storage,
+                             BlobService blobs, ProjectBundleService bundles) {
         this.config = config;
         this.projects = projects;
         this.channels = channels;
@@ -84,7 +112,12 @@ public class VersionController {
         this.distributions = distributions;
         this.downloads = downloads;
         this.posts = posts;
-        this.s3 = s3;
+        this.storage = storage;
+        this.blobs = blobs;
+        this.bundles = bundles;
+        this.pendingUploads = CacheBuilder.newBuilder()
+                .expireAfterWrite(config.getS3UploadsExpiry(), TimeUnit.SECONDS)
+                .build();
     }
 
     @Operation(
@@ -99,7 +132,7 @@ public class VersionController {
             produces = {MediaType.APPLICATION_JSON_VALUE}
     )
     @CrossOrigin
-    public Page<Version> getProjectVersions(
+    public Page<VersionListing> getProjectVersions(
             @Parameter(description = "The slug of the project to get versions for.")
             @Pattern(regexp = Project.PATTERN)
             @PathVariable String projectSlug,
@@ -109,11 +142,15 @@ public class VersionController {
             @PathVariable String channelName,
 
             @RequestParam(value = "page", defaultValue = "0") int page,
-            @RequestParam(value = "size", defaultValue = "15") int size
+            @RequestParam(value = "size", defaultValue = "15") int size,
+
+            @Parameter(description = "Optional fields to include, such as \"changelog\".")
+            @RequestParam(value = "include", required = false) List<String> include
     ) {
         final Project project = projects.findById(projectSlug).orElseThrow(ProjectNotFound::new);
         final Channel channel = channels.findChannelByName(channelName).orElseThrow(ChannelNotFound::new);
-        return versions.getAllByProjectAndChannelOrderByTimestampDesc(project, channel, PageRequest.of(page, size));
+        final Page<VersionRepository.Listing> found = versions.findListingPage(project, channel, PageRequest.of(page, size));
+        return new PageImpl<>(getListings(found.getContent(), include), found.getPageable(), found.getTotalElements());
     }
 
     @Operation(
@@ -129,7 +166,7 @@ public class VersionController {
             produces = {MediaType.APPLICATION_JSON_VALUE}
     )
     @CrossOrigin
-    public Page<Version> getProjectDistributionsVersions(
+    public Page<VersionListing> getProjectDistributionsVersions(
             @Parameter(description = "The slug of the project to get versions for.")
             @Pattern(regexp = Project.PATTERN)
             @PathVariable String projectSlug,
@@ -143,16 +180,127 @@ public class VersionController {
             @PathVariable String distributionName,
 
             @RequestParam(value = "page", defaultValue = "0") int page,
-            @RequestParam(value = "size", defaultValue = "15") int size
+            @RequestParam(value = "size", defaultValue = "15") int size,
+
+            @Parameter(description = "Optional fields to include, such as \"changelog\".")
+            @RequestParam(value = "include", required = false) List<String> include
     ) {
         final Project project = projects.findById(projectSlug).orElseThrow(ProjectNotFound::new);
         final Channel channel = channels.findChannelByName(channelName).orElseThrow(ChannelNotFound::new);
         final Distribution distribution = distributions.findDistributionByNameAndProjectOrderBySortingWeightDesc(distributionName, project)
                 .orElseThrow(DistributionNotFound::new);
 
-        return versions.getAllByProjectAndChannelAndDownloadsDistributionOrderByTimestampDesc(
+        final Page<VersionRepository.Listing> found = versions.findListingPageWithDistribution(
                 project, channel, distribution, PageRequest.of(page, size)
         );
+        return new PageImpl<>(getListings(found.getContent(), include), found.getPageable(), found.getTotalElements());
+    }
+
+    @Operation(
+            summary = "Scroll through a project's versions on a specific channel, newest first."
+    )
+    @ApiResponse(
+            responseCode = "200"
+    )
+    @ApiResponse(
+            responseCode = "400",
+            description = "The cursor is invalid, or too many versions were requested.",
+            content = @Content(schema = @Schema(implementation = ErrorResponse.class))
+    )
+    @GetMapping(
+            value = "/v1/projects/{projectSlug:" + Project.PATTERN
+                    + "}/channels/{channelName:" + Channel.PATTERN + "}/versions/scroll",
+            produces = {MediaType.APPLICATION_JSON_VALUE}
+    )
+    @CrossOrigin
+    public VersionList scrollProjectVersions(
+            @Parameter(description = "The slug of the project to get versions for.")
+            @Pattern(regexp = Project.PATTERN)
+            @PathVariable String projectSlug,
+
+            @Parameter(description = "The name of the release channel to get versions on.")
+            @Pattern(regexp = Channel.PATTERN)
+            @PathVariable String channelName,
+
+            @Parameter(description = "The cursor returned with the previous list of versions, if any.")
+            @RequestParam(value = "cursor", required = false) String cursor,
+
+            @RequestParam(value = "size", defaultValue = "15") int size,
+
+            @Parameter(description = "Whether to include the total number of versions.")
+            @RequestParam(value = "total", defaultValue = "false") boolean total,
+
+            @Parameter(description = "Optional fields to include, such as \"changelog\".")
+            @RequestParam(value = "include", required = false) List<String> include
+    ) {
+        final Project project = projects.findById(projectSlug).orElseThrow(ProjectNotFound::new);
+        final Channel channel = channels.findChannelByName(channelName).orElseThrow(ChannelNotFound::new);
+        final VersionCursor after = cursor != null ? VersionCursor.decode(cursor) : null;
+        final PageRequest request = getScrollRequest(size);
+
+        final List<VersionRepository.Listing> found = after == null
+                ? versions.findListings(project, channel, request)
+                : versions.findListingsBefore(project, channel, after.timestamp(), after.id(), request);
+        return getVersionList(found, request, total ? versions.countByProjectAndChannel(project, channel) : null,
+                include);
+    }
+
+    @Operation(
+            summary = "Scroll through a project's versions on a specific channel that contain a specific distribution, newest first."
+    )
+    @ApiResponse(
+            responseCode = "200"
+    )
+    @ApiResponse(
+            responseCode = "400",
+            description = "The cursor is invalid, or too many versions were requested.",
+            content = @Content(schema = @Schema(implementation = ErrorResponse.class))
+    )
+    @GetMapping(
+            value = "/v1/projects/{projectSlug:" + Project.PATTERN
+                    + "}/channels/{channelName:" + Channel.PATTERN
+                    + "}/distributions/{distributionName:" + Distribution.PATTERN + "}/versions/scroll",
+            produces = {MediaType.APPLICATION_JSON_VALUE}
+    )
+    @CrossOrigin
+    public VersionList scrollProjectDistributionsVersions(
+            @Parameter(description = "The slug of the project to get versions for.")
+            @Pattern(regexp = Project.PATTERN)
+            @PathVariable String projectSlug,
+
+            @Parameter(description = "The name of the release channel to get versions on.")
+            @Pattern(regexp = Channel.PATTERN)
+            @PathVariable String channelName,
+
+            @Parameter(description = "The name of the distribution to get versions for.")
+            @Pattern(regexp = Distribution.PATTERN)
+            @PathVariable String distributionName,
+
+            @Parameter(description = "The cursor returned with the previous list of versions, if any.")
+            @RequestParam(value = "cursor", required = false) String cursor,
+
+            @RequestParam(value = "size", defaultValue = "15") int size,
+
+            @Parameter(description = "Whether to include the total number of versions.")
+            @RequestParam(value = "total", defaultValue = "false") boolean total,
+
+            @Parameter(description = "Optional fields to include, such as \"changelog\".")
+            @RequestParam(value = "include", required = false) List<String> include
+    ) {
+        final Project project = projects.findById(projectSlug).orElseThrow(ProjectNotFound::new);
+        final Channel channel = channels.findChannelByName(channelName).orElseThrow(ChannelNotFound::new);
+        final Distribution distribution = distributions.findDistributionByNameAndProjectOrderBySortingWeightDesc(distributionName, project)
+                .orElseThrow(DistributionNotFound::new);
+        final VersionCursor after = cursor != null ? VersionCursor.decode(cursor) : null;
+        final PageRequest request = getScrollRequest(size);
+
+        final List<VersionRepository.Listing> found = after == null
+                ? versions.findListingsWithDistribution(project, channel, distribution, request)
+                : versions.findListingsBeforeWithDistribution(
+                project, channel, distribution, after.timestamp(), after.id(), request);
+        return getVersionList(found, request, total
+                ? versions.countByProjectAndChannelAndDownloadsDistribution(project, channel, distribution) : null,
+                include);
     }
 
     @Operation(
@@ -232,7 +380,7 @@ public class VersionController {
                     "content-type=application/octet-stream", "content-type=application/json"
             }
     )
-    public Version postVersionOAuth(
+    public CompletableFuture<Version> postVersionOAuth(
             @AuthenticationPrincipal User principal,
 
             @Parameter(description = "The slug of the project to create a version for.")
@@ -293,7 +441,7 @@ public class VersionController {
             origins = "*", allowCredentials = "false",
             allowedHeaders = {"X-Api-Key", "Content-Type", "Accept"}
     )
-    public Version postVersionApiKey(
+    public CompletableFuture<Version> postVersionApiKey(
             @RequestHeader("X-Api-Key") String apiKey,
 
             @Parameter(description = "The slug of the project to create a version for.")
@@ -312,16 +460,213 @@ public class VersionController {
             @Schema(description = "The files to upload for the version.")
             MultipartFile[] files
     ) {
-        if (config.getApiSecret() == null) {
-            throw new IllegalStateException("API key is not set on server.");
-        }
-        if (apiKey == null || apiKey.isBlank()) {
-            throw new NotAuthenticated();
+        checkApiKey(apiKey);
+        return createNewVersion(projectSlug, channelName, version, files);
+    }
+
+    @Operation(
+            summary = "Reserve a new version with an API key, returning URLs to upload its files to directly.",
+            description = "Each download must declare its file size and MD5 checksum. Upload each file with a PUT "
+                          + "request to its URL, then finalize the upload to publish the version. Reservations "
+                          + "are held in memory by the server that made them, and are lost if it restarts.",
+            security = {
+                    @SecurityRequirement(name = "APIKey")
+            }
+    )
+    @ApiResponse(
+            responseCode = "200",
+            description = "The version was reserved and upload URLs were created."
+    )
+    @ApiResponse(
+            responseCode = "400",
+            description = "A download is missing a valid name, file size or checksum.",
+            content = @Content(schema = @Schema(implementation = ErrorResponse.class))
+    )
+    @ApiResponse(
+            responseCode = "401",
+            description = "No API key provided.",
+            content = @Content(schema = @Schema(implementation = ErrorResponse.class))
+    )
+    @ApiResponse(
+            responseCode = "403",
+            description = "Invalid API key.",
+            content = @Content(schema = @Schema(implementation = ErrorResponse.class))
+    )
+    @ApiResponse(
+            responseCode = "409",
+            description = "A version with this name already exists, or is being uploaded.",
+            content = @Content(schema = @Schema(implementation = ErrorResponse.class))
+    )
+    @PostMapping(
+            value = "/v1/projects/{projectSlug:" + Project.PATTERN
+                    + "}/channels/{channelName:" + Channel.PATTERN + "}/versions/api/uploads",
+            consumes = MediaType.APPLICATION_JSON_VALUE,
+            produces = MediaType.APPLICATION_JSON_VALUE
+    )
+    @CrossOrigin(
+            origins = "*", allowCredentials = "false",
+            allowedHeaders = {"X-Api-Key", "Content-Type", "Accept"}
+    )
+    public CompletableFuture<VersionUpload> reserveVersionApiKey(
+            @RequestHeader("X-Api-Key") String apiKey,
+
+            @Parameter(description = "The slug of the project to create a version for.")
+            @Pattern(regexp = Project.PATTERN)
+            @PathVariable String projectSlug,
+
+            @Parameter(description = "The name of the channel to release the version on.")
+            @Pattern(regexp = Channel.PATTERN)
+            @PathVariable String channelName,
+
+            @RequestBody
+            @Schema(description = "The version to reserve.")
+            VersionReservation reservation
+    ) {
+        checkApiKey(apiKey);
+
+        // Resolve the version without saving anything, then create an upload URL for each download not already stored
+        final Version reserved = resolveVersion(projectSlug, channelName, reservation.toVersion());
+        if (isReserved(reserved)) {
+            throw new VersionAlreadyExists();
         }
-        if (!MessageDigest.isEqual(Utf8.encode(config.getApiSecret()), Utf8.encode(apiKey))) {
-            throw new NoPermission();
+        final List<CompletableFuture<DownloadUpload>> uploads = reserved.getDownloads().stream().map(d -> {
+            if (blobs.isEnabled() && d.getSha256() != null) {
+                // A stored blob with this hash but different contents means the declared hash is wrong;
+                // uploading anyway would overwrite the blob's object
+                final Optional<Blob> stored = blobs.find(d.getSha256());
+                if (stored.isPresent()) {
+                    if (!stored.get().matches(d)) {
+                        throw new InvalidUpload();
+                    }
+                    d.setBlob(stored.get());
+                    return CompletableFuture.completedFuture(
+                            new DownloadUpload(d.getDistribution().getName(), d.getName(), null));
+                }
+                d.setBlob(Blob.builder().sha256(d.getSha256()).md5(d.getMd5()).fileSize(d.getFileSize()).build());
+            }
+            return storage.getVersionUploadUrl(reserved.getDownloadObjectName(d.getDistribution(), d))
+                    .thenApply(url -> new DownloadUpload(
+                            d.getDistribution().getName(), d.getName(), url.orElseThrow(UploadFailed::new)
+                    ));
+        }).toList();
+
+        return CompletableFuture.allOf(uploads.toArray(CompletableFuture[]::new)).thenApply(ignored -> {
+            final String uploadId = UUID.randomUUID().toString();
+            pendingUploads.put(uploadId, reserved);
+            return new VersionUpload(uploadId, Instant.now().plusSeconds(config.getS3UploadsExpiry()),
+                    uploads.stream().map(CompletableFuture::join).toList());
+        });
+    }
+
+    @Operation(
+            summary = "Finalize a reserved version with an API key, once its files have been uploaded.",
+            security = {
+                    @SecurityRequirement(name = "APIKey")
+            }
+    )
+    @ApiResponse(
+            responseCode = "200",
+            description = "The uploaded files were verified and the version was created."
+    )
+    @ApiResponse(
+            responseCode = "400",
+            description = "An uploaded file is missing or doesn't match its declared size and checksum.",
+            content = @Content(schema = @Schema(implementation = ErrorResponse.class))
+    )
+    @ApiResponse(
+            responseCode = "401",
+            description = "No API key provided.",
+            content = @Content(schema = @Schema(implementation = ErrorResponse.class))
+    )
+    @ApiResponse(
+            responseCode = "403",
+            description = "Invalid API key.",
+            content = @Content(schema = @Schema(implementation = ErrorResponse.class))
+    )
+    @ApiResponse(
+            responseCode = "404",
+            description = "The upload was not found, or has expired.",
+            content = @Content(schema = @Schema(implementation = ErrorResponse.class))
+    )
+    @PostMapping(
+            value = "/v1/projects/{projectSlug:" + Project.PATTERN
+                    + "}/channels/{channelName:" + Channel.PATTERN + "}/versions/api/uploads/{uploadId}",
+            produces = MediaType.APPLICATION_JSON_VALUE
+    )
+    @CrossOrigin(
+            origins = "*", allowCredentials = "false",
+            allowedHeaders = {"X-Api-Key", "Content-Type", "Accept"}
+    )
+    public CompletableFuture<Version> finalizeVersionApiKey(
+            @RequestHeader("X-Api-Key") String apiKey,
+
+            @Parameter(description = "The slug of the project the version was reserved for.")
+            @Pattern(regexp = Project.PATTERN)
+            @PathVariable String projectSlug,
+
+            @Parameter(description = "The name of the channel the version was reserved on.")
+            @Pattern(regexp = Channel.PATTERN)
+            @PathVariable String channelName,
+
+            @Parameter(description = "The ID of the upload, returned when the version was reserved.")
+            @PathVariable String uploadId
+    ) {
+        checkApiKey(apiKey);
+
+        // Claim the upload so it can't be finalized twice
+        final Version version = pendingUploads.asMap().remove(uploadId);
+        if (version == null || !version.getProject().getSlug().equals(projectSlug)
+            || !version.getChannel().getName().equals(channelName)) {
+            if (version != null) {
+                pendingUploads.put(uploadId, version);
+            }
+            throw new UploadNotFound();
         }
-        return createNewVersion(projectSlug, channelName, version, files);
+
+        // Verify each uploaded object exists and matches its declared size and checksum. Files already stored
+        // as blobs were verified when first uploaded, so are skipped if their blob is still stored
+        final List<CompletableFuture<Void>> checks = version.getDownloads().stream().map(download -> {
+            if (download.getBlob() != null && blobs.find(download.getBlob().getSha256())
+                    .filter(blob -> blob.getReferenceCount() > 0 && blob.matches(download)).isPresent()) {
+                return CompletableFuture.<Void>completedFuture(null);
+            }
+            final String objectName = version.getDownloadObjectName(download.getDistribution(), download);
+            return storage.statVersion(objectName).thenCompose(stat -> {
+                final boolean verified = stat
+                        .filter(s -> s.size() == download.getFileSize())
+                        .filter(s -> download.getMd5().equalsIgnoreCase(s.etag()))
+                        .isPresent();
+                if (!verified) {
+                    log.warn("Upload {} of version {} failed verification at '{}'",
+                            uploadId, version.getName(), objectName);
+                    throw new InvalidUpload();
+                }
+
+                // Only a hash that will key a blob needs checking against the contents; others aren't kept
+                if (download.getBlob() == null) {
+                    download.setSha256(null);
+                    return CompletableFuture.<Void>completedFuture(null);
+                }
+                return storage.readVersion(objectName, BlobService::hash).thenAccept(hashed ->
+                        verifyContents(download, hashed.orElseThrow(InvalidUpload::new), objectName));
+            });
+        }).toList();
+
+        // Release the claim if verification fails, so the upload can be fixed and finalized again
+        return CompletableFuture.allOf(checks.toArray(CompletableFuture[]::new)).whenComplete((ignored, e) -> {
+            if (e != null) {
+                pendingUploads.put(uploadId, version);
+            }
+        }).thenApply(ignored -> {
+            prepareVersion(version);
+            version.getDownloads().forEach(download -> {
+                if (download.getBlob() != null) {
+                    download.setBlob(blobs.reference(download.getBlob()));
+                }
+                downloads.save(download);
+            });
+            return publishVersion(version);
+        });
     }
 
     @Operation(
@@ -378,43 +723,81 @@ public class VersionController {
         final Version version = versions.findByProjectAndChannelAndName(project, channel, versionName)
                 .orElseThrow(VersionNotFound::new);
 
+        version.getDownloads().stream().map(Download::getBlob).filter(Objects::nonNull).forEach(blobs::release);
         versions.delete(version);
+        bundles.invalidate(projectSlug);
 
         return ResponseEntity.ok().build();
     }
 
+    // Versions are listed without changelogs; their downloads, and changelogs if requested, take one query each
     @NotNull
-    private Version createNewVersion(@NotNull String projectSlug, @NotNull String channelName,
-                                     @NotNull Version version, @NotNull MultipartFile[] files) {
-        final Project project = projects.findById(projectSlug).orElseThrow(ProjectNotFound::new);
+    private List<VersionListing> getListings(@NotNull List<VersionRepository.Listing> found,
+                                             @Nullable List<String> include) {
+        if (found.isEmpty()) {
+            return List.of();
+        }
+        final List<Integer> ids = found.stream().map(VersionRepository.Listing::getId).toList();
+        final Map<Integer, List<Download>> downloads = new HashMap<>();
+        versions.findListedDownloads(ids).forEach(listed -> downloads
+                .computeIfAbsent(listed.getVersionId(), id -> new ArrayList<>()).add(listed.getDownload()));
+        final Map<Integer, String> changelogs = new HashMap<>();
+        if (include != null && include.contains(INCLUDE_CHANGELOG)) {
+            versions.findChangelogs(ids).forEach(log -> changelogs.put(log.getId(), log.getChangelog()));
+        }
 
-        // Create the channel, add it to the project if it doesn't exist
-        final Channel channel = channels.findChannelByName(channelName).orElse(channels.save(new Channel(channelName)));
-        if (project.addReleaseChannel(channel)) {
-            projects.save(project);
+        return found.stream().map(listing -> new VersionListing(
+                listing.getName(),
+                changelogs.get(listing.getId()),
+                listing.getTimestamp(),
+                downloads.getOrDefault(listing.getId(), List.of()),
+                listing.getDownloadCount()
+        )).toList();
+    }
+
+    @NotNull
+    private VersionList getVersionList(@NotNull List<VersionRepository.Listing> found, @NotNull PageRequest request,
+                                       @Nullable Long total, @Nullable List<String> include) {
+        if (found.size() < request.getPageSize()) {
+            return new VersionList(getListings(found, include), null, total);
         }
+        final List<VersionRepository.Listing> page = found.subList(0, request.getPageSize() - 1);
+        return new VersionList(getListings(page, include), VersionCursor.of(page.get(page.size() - 1)).encode(), total);
+    }
 
-        // Set version parameters
-        version.setProject(project);
-        version.setChannel(channel);
-        if (version.getTimestamp() == null) {
-            version.setTimestamp(Instant.now());
+    // Requests one more version than asked for, to tell whether there's another page without counting
+    @NotNull
+    private static PageRequest getScrollRequest(int size) {
+        if (size > MAX_VERSION_PAGE_SIZE) {
+            throw new BatchTooLarge();
         }
+        return PageRequest.of(0, Math.max(size, 1) + 1);
+    }
 
-        // Set dist
-        version.getDownloads().forEach(d -> d.setDistribution(
-                distributions.findDistributionByNameAndProjectOrderBySortingWeightDesc(d.getDistribution().getName(), project).orElseGet(() -> {
-                    d.getDistribution().setProject(project);
-                    return distributions.save(d.getDistribution());
-                })
-        ));
+    private void checkApiKey(String apiKey) {
+        if (config.getApiSecret() == null) {
+            throw new IllegalStateException("API key is not set on server.");
+        }
+        if (apiKey == null || apiKey.isBlank()) {
+            throw new NotAuthenticated();
+        }
+        if (!MessageDigest.isEqual(Utf8.encode(config.getApiSecret()), Utf8.encode(apiKey))) {
+            throw new NoPermission();
+        }
+    }
+
+    @NotNull
+    private CompletableFuture<Version> createNewVersion(@NotNull String projectSlug, @NotNull String channelName,
+                                                        @NotNull Version version, @NotNull MultipartFile[] files) {
+        prepareVersion(resolveVersion(projectSlug, channelName, version));
 
-        // Save and correctly relocate the uploaded files
+        // Checksum the uploaded files, then store them all in parallel
+        final List<CompletableFuture<?>> uploads = new ArrayList<>(files.length);
         try {
             for (int i = 0; i < files.length; i++) {
                 final MultipartFile file = files[i];
                 final Download download = version.getDownloads().get(i);
-                final String objectName = version.getDownloadObjectName(download.getDistribution(), download);
+                final String contentType = file.getContentType() == null ? DEFAULT_CONTENT_TYPE : file.getContentType();
 
                 // Check size
                 long size = file.getSize();
@@ -423,28 +806,295 @@ public class VersionController {
                 }
                 download.setFileSize(size);
 
-                // Move file
-                try (InputStream copy = file.getInputStream()) {
-                    s3.uploadVersion(copy, size,
-                            file.getContentType() == null ? DEFAULT_CONTENT_TYPE : file.getContentType(),
-                            objectName);
+                // Store by content hash, skipping the upload if an identical file is already stored
+                if (blobs.isEnabled()) {
+                    uploads.add(blobs.store(file, contentType).thenAccept(blob -> {
+                        download.setBlob(blob);
+                        download.setMd5(blob.getMd5());
+                        download.setSha256(blob.getSha256());
+                    }));
+                    continue;
                 }
-                try (InputStream copy = file.getInputStream()) {
-                    download.setMd5(DigestUtils.md5DigestAsHex(copy));
-                }
-                downloads.save(download);
+
+                // Move file
+                final Blob hashed = BlobService.hash(file);
+                download.setMd5(hashed.getMd5());
+                download.setSha256(hashed.getSha256());
+                final String objectName = version.getDownloadObjectName(download.getDistribution(), download);
+                uploads.add(storage.uploadVersion(file, size, contentType, objectName));
             }
         } catch (Throwable e) {
             log.warn("Failed to upload files for version {} of project {}", version.getName(), projectSlug, e);
-            throw new UploadFailed();
+            throw uploadFailed(e);
+        }
+
+        // Stored blobs are only referenced once every upload has succeeded
+        return CompletableFuture.allOf(uploads.toArray(CompletableFuture[]::new)).handle((ignored, e) -> {
+            if (e != null) {
+                log.warn("Failed to upload files for version {} of project {}", version.getName(), projectSlug, e);
+                throw uploadFailed(e);
+            }
+            version.getDownloads().forEach(download -> {
+                if (download.getBlob() != null) {
+                    download.setBlob(blobs.reference(download.getBlob()));
+                }
+                downloads.save(download);
+            });
+            return publishVersion(version);
+        });
+    }
+
+    // Resolve a version's project, channel and distributions without saving anything. New channels and
+    // distributions are left unsaved until the version is published, so abandoned uploads leave nothing behind
+    @NotNull
+    private Version resolveVersion(@NotNull String projectSlug, @NotNull String channelName, @NotNull Version version) {
+        final Project project = projects.findById(projectSlug).orElseThrow(ProjectNotFound::new);
+        final Optional<Channel> channel = channels.findChannelByName(channelName);
+        if (channel.isPresent() && versions.existsByProjectAndChannelAndName(project, channel.get(), version.getName())) {
+            throw new VersionAlreadyExists();
+        }
+
+        // Set version parameters
+        version.setProject(project);
+        version.setChannel(channel.orElseGet(() -> new Channel(channelName)));
+        if (version.getTimestamp() == null) {
+            version.setTimestamp(Instant.now());
+        }
+
+        // Set dist
+        version.getDownloads().forEach(d -> d.setDistribution(
+                distributions.findDistributionByNameAndProjectOrderBySortingWeightDesc(d.getDistribution().getName(), project).orElseGet(() -> {
+                    d.getDistribution().setProject(project);
+                    return d.getDistribution();
+                })
+        ));
+        return version;
+    }
+
+    // Save a resolved version's channel and distributions if they're new, adding the channel to the project
+    @NotNull
+    private Version prepareVersion(@NotNull Version version) {
+        final Project project = projects.findWithReleaseChannelsBySlug(version.getProject().getSlug())
+                .orElseThrow(ProjectNotFound::new);
+        final Channel channel = channels.findChannelByName(version.getChannel().getName())
+                .orElseGet(() -> channels.save(version.getChannel()));
+        if (project.addReleaseChannel(channel)) {
+            projects.save(project);
         }
+        version.setProject(project);
+        version.setChannel(channel);
 
-        // Save the version, auto-create a post
+        // Versions reserved concurrently under the same name are caught here
+        if (versions.existsByProjectAndChannelAndName(project, channel, version.getName())) {
+            throw new VersionAlreadyExists();
+        }
+
+        version.getDownloads().forEach(d -> {
+            if (d.getDistribution().getId() == null) {
+                d.setDistribution(distributions.findDistributionByNameAndProjectOrderBySortingWeightDesc(
+                        d.getDistribution().getName(), project).orElseGet(() -> distributions.save(d.getDistribution())));
+            }
+        });
+        return version;
+    }
+
+    // Surface storage outages as they are, rather than as a generic upload failure
+    @NotNull
+    private static RuntimeException uploadFailed(@NotNull Throwable e) {
+        final Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        return cause instanceof StorageException storageException ? storageException : new UploadFailed();
+    }
+
+    // Check an uploaded object's hashes match the size and checksums declared when it was reserved.
+    // The declared SHA-256 is only trusted as a blob's key once it's verified here
+    private void verifyContents(@NotNull Download download, @NotNull Blob hashed, @NotNull String objectName) {
+        if (hashed.getFileSize() != download.getFileSize() || !hashed.getMd5().equalsIgnoreCase(download.getMd5())
+            || (download.getSha256() != null && !hashed.getSha256().equalsIgnoreCase(download.getSha256()))) {
+            log.warn("Uploaded object '{}' doesn't match its declared size and checksums", objectName);
+            throw new InvalidUpload();
+        }
+        download.setSha256(hashed.getSha256());
+    }
+
+    // Whether a version of the same name is already reserved; its uploads would overwrite each other
+    private boolean isReserved(@NotNull Version version) {
+        return pendingUploads.asMap().values().stream().anyMatch(pending ->
+                pending.getProject().getSlug().equals(version.getProject().getSlug())
+                && pending.getChannel().getName().equals(version.getChannel().getName())
+                && pending.getName().equals(version.getName()));
+    }
+
+    // Save the version, auto-create a post
+    @NotNull
+    private Version publishVersion(@NotNull Version version) {
         final Version created = versions.save(version);
+        bundles.invalidate(created.getProject().getSlug());
         if (created.getChannel().isCreatePosts()) {
             posts.save(Post.fromVersion(created));
         }
         return created;
     }
 
+    @Schema(
+            name = "VersionListing",
+            description = "A version of a project, listed without its changelog unless it was included."
+    )
+    public record VersionListing(
+            @Schema(description = "Name/tag of the version.")
+            @NotNull String name,
+            @Schema(description = "Changelog for the version, if it was included.")
+            @JsonInclude(JsonInclude.Include.NON_NULL)
+            @Nullable String changelog,
+            @Schema(description = "Timestamp of the version's release.")
+            @NotNull Instant timestamp,
+            @Schema(description = "The downloads associated with this version.")
+            @NotNull List<Download> downloads,
+            @Schema(description = "The number of times this version has been downloaded.")
+            long downloadCount
+    ) {
+    }
+
+    @Schema(
+            name = "VersionList",
+            description = "A list of versions, with a cursor to fetch the next list from."
+    )
+    public record VersionList(
+            @Schema(description = "The versions, newest first.")
+            @NotNull List<VersionListing> versions,
+            @Schema(description = "The cursor to pass to get the next versions, or null if there are no more.")
+            @Nullable String nextCursor,
+            @Schema(description = "The total number of versions, if it was requested.")
+            @Nullable Long total
+    ) {
+    }
+
+    // Opaque position of a version in (timestamp, id) order
+    private record VersionCursor(@NotNull Instant timestamp, int id) {
+
+        private static final String SEPARATOR = "|";
+
+        @NotNull
+        private static VersionCursor of(@NotNull VersionRepository.Listing version) {
+            return new VersionCursor(version.getTimestamp(), version.getId());
+        }
+
+        @NotNull
+        private static VersionCursor decode(@NotNull String cursor) {
+            try {
+                final String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+                final int separator = decoded.lastIndexOf(SEPARATOR);
+                if (separator < 0) {
+                    throw new InvalidCursor();
+                }
+                return new VersionCursor(Instant.parse(decoded.substring(0, separator)),
+                        Integer.parseInt(decoded.substring(separator + 1)));
+            } catch (IllegalArgumentException | DateTimeException e) {
+                throw new InvalidCursor();
+            }
+        }
+
+        @NotNull
+        private String encode() {
+            return Base64.getUrlEncoder().withoutPadding()
+                    .encodeToString((timestamp + SEPARATOR + id).getBytes(StandardCharsets.UTF_8));
+        }
+
+    }
+
+    @Schema(
+            name = "VersionReservation",
+            description = "A version to reserve, declaring the files that will be uploaded for it."
+    )
+    public record VersionReservation(
+            @Schema(description = "Name/tag of the version.", pattern = Version.PATTERN, example = "4.7")
+            @Nullable String name,
+            @Schema(description = "Changelog for the version.")
+            @Nullable String changelog,
+            @Schema(description = "Timestamp of the version's release; defaults to when it's published.")
+            @Nullable Instant timestamp,
+            @Schema(description = "The files that will be uploaded for the version.")
+            @Nullable List<DownloadReservation> downloads
+    ) {
+
+        @NotNull
+        private Version toVersion() {
+            if (name == null || !name.matches(Version.PATTERN) || downloads == null || downloads.isEmpty()) {
+                throw new InvalidUpload();
+            }
+            return Version.builder()
+                    .name(name)
+                    .changelog(changelog != null ? changelog : Version.DEFAULT_CHANGELOG)
+                    .timestamp(timestamp)
+                    .downloads(downloads.stream().map(DownloadReservation::toDownload)
+                            .collect(Collectors.toCollection(ArrayList::new)))
+                    .build();
+        }
+
+    }
+
+    @Schema(
+            name = "DownloadReservation",
+            description = "A file that will be uploaded for a reserved version."
+    )
+    public record DownloadReservation(
+            @Schema(description = "The distribution the file is for.")
+            @Nullable Distribution distribution,
+            @Schema(description = "The file name.", pattern = Download.PATTERN, example = "HuskHomes-Paper-4.7.jar")
+            @Nullable String name,
+            @Schema(description = "The size of the file in bytes.", example = "1024")
+            long fileSize,
+            @Schema(description = "The MD5 checksum of the file.", pattern = MD5_PATTERN)
+            @Nullable String md5,
+            @Schema(description = "The SHA-256 checksum of the file, letting files that are already stored skip "
+                                  + "uploading. It's verified against the uploaded file.", pattern = Blob.PATTERN)
+            @Nullable String sha256
+    ) {
+
+        @NotNull
+        private Download toDownload() {
+            if (name == null || !name.matches(Download.PATTERN) || distribution == null
+                || distribution.getName() == null || !distribution.getName().matches(Distribution.PATTERN)
+                || fileSize <= 0 || md5 == null || !md5.matches(MD5_PATTERN)
+                || (sha256 != null && !sha256.matches(Blob.PATTERN))) {
+                throw new InvalidUpload();
+            }
+            return Download.builder()
+                    .distribution(distribution)
+                    .name(name)
+                    .fileSize(fileSize)
+                    .md5(md5)
+                    .sha256(sha256)
+                    .build();
+        }
+
+    }
+
+    @Schema(
+            name = "VersionUpload",
+            description = "A reserved version, with URLs to upload each of its downloads to."
+    )
+    public record VersionUpload(
+            @Schema(description = "The ID of the upload, used to finalize the version once files are uploaded.")
+            @NotNull String id,
+            @Schema(description = "When the upload URLs expire.")
+            @NotNull Instant expiresAt,
+            @Schema(description = "The upload URL for each download.")
+            @NotNull List<DownloadUpload> uploads
+    ) {
+    }
+
+    @Schema(
+            name = "DownloadUpload",
+            description = "A presigned URL to upload a download's file to with a PUT request."
+    )
+    public record DownloadUpload(
+            @Schema(description = "The name of the download's distribution.", example = "fabric-1.20.1")
+            @NotNull String distribution,
+            @Schema(description = "The file name of the download.", example = "HuskHomes-Paper-4.7.jar")
+            @NotNull String name,
+            @Schema(description = "The presigned URL to PUT the file to, or null if an identical file is already stored.")
+            @Nullable String url
+    ) {
+    }
+
 }
@@ -0,0 +1,81 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 William278
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.william278.backend.database.model;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.jetbrains.annotations.NotNull;
+
+import java.time.Instant;
+
+@Schema(
+        name = "Blob",
+        description = "A content-addressed stored file, shared by every download with identical contents."
+)
+@Entity
+@Table(name = "blobs")
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class Blob {
+
+    public static final String PATTERN = "[a-f0-9]{64}";
+    public static final String OBJECT_PREFIX = "blobs/";
+
+    @Id
+    @Column(length = 64)
+    private String sha256;
+
+    @Column(length = 32)
+    private String md5;
+
+    private long fileSize;
+
+    @Builder.Default
+    private long referenceCount = 0;
+
+    @Builder.Default
+    private Instant createdAt = Instant.now();
+
+    @NotNull
+    public String getObjectName() {
+        return getObjectName(sha256);
+    }
+
+    @NotNull
+    public static String getObjectName(@NotNull String sha256) {
+        return OBJECT_PREFIX + sha256.substring(0, 2) + "/" + sha256;
+    }
+
+    public boolean matches(@NotNull Download download) {
+        return fileSize == download.getFileSize() && md5.equalsIgnoreCase(download.getMd5());
+    }
+
+}
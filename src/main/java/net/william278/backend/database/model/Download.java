@@ -25,6 +25,7 @@
 package net.william278.backend.database.model;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import io.swagger.v3.oas.annotations.media.Schema;
 import jakarta.persistence.*;
 import lombok.*;
@@ -41,7 +42,7 @@ import lombok.*;
 @AllArgsConstructor
 public class Download {
 
-    public static final String PATTERN = "[a-zA-Z0-9._-\\\\+]+\\.[a-zA-Z0-9._-]+";
+    public static final String PATTERN = "[a-zA-Z0-9._+-]+\\.[a-zA-Z0-9._-]+";
 
     @Id
     @JsonIgnore
@@ -73,6 +74,22 @@ public class Download {
     @Column(length = 32)
     private String md5;
 
+    @Schema(
+            name = "sha256",
+            description = "The SHA-256 checksum of the file, computed by the server once it's stored.",
+            pattern = Blob.PATTERN,
+            example = "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855",
+            accessMode = Schema.AccessMode.READ_ONLY,
+            requiredMode = Schema.RequiredMode.NOT_REQUIRED
+    )
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    @Column(length = 64)
+    private String sha256;
+
+    @JsonIgnore
+    @ManyToOne
+    private Blob blob;
+
     @Schema(
             name = "fileSize",
             description = "The size of the file in bytes.",
@@ -25,8 +25,9 @@
 package net.william278.backend.database.model;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonRawValue;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import io.swagger.v3.oas.annotations.media.Schema;
 import jakarta.persistence.*;
 import lombok.*;
@@ -52,6 +53,8 @@ import java.util.Map;
 @AllArgsConstructor
 public class Page {
 
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
     @Id
     @JsonIgnore
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -67,23 +70,36 @@ public class Page {
     @Column(length = Integer.MAX_VALUE)
     private String contents;
 
+    // Contents are sorted when set, so the stored JSON can be served as-is
     @Schema(
             name = "contents",
-            description = "The JSON contents of the page."
+            description = "The JSON contents of the page.",
+            implementation = Page.Contents.class
     )
-    @JsonSerialize
-    @SneakyThrows
-    @NotNull
-    public Page.Contents getContents() {
-        final Contents deserialized = new ObjectMapper().readValue(contents, Page.Contents.class);
-        deserialized.sort();
-        return deserialized;
+    @JsonProperty("contents")
+    @JsonRawValue
+    @Nullable
+    public String getContentsJson() {
+        return contents;
     }
 
+    @JsonProperty("contents")
     @SneakyThrows
     @SuppressWarnings("unused")
     public void setContents(@NotNull Page.Contents contents) {
-        this.contents = new ObjectMapper().writeValueAsString(contents);
+        contents.sort();
+        this.contents = MAPPER.writeValueAsString(contents);
+    }
+
+    // Re-sort contents stored before they were sorted on write; returns whether they changed
+    @SneakyThrows
+    public boolean normalizeContents() {
+        if (contents == null) {
+            return false;
+        }
+        final String stored = contents;
+        setContents(MAPPER.readValue(stored, Page.Contents.class));
+        return !stored.equals(contents);
     }
 
     @Getter
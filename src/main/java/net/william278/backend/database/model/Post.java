@@ -30,6 +30,7 @@ import io.swagger.v3.oas.annotations.media.Schema;
 import jakarta.persistence.*;
 import jakarta.validation.constraints.Pattern;
 import lombok.*;
+import net.william278.backend.util.MarkdownUtils;
 import org.hibernate.validator.constraints.Length;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -56,6 +57,8 @@ public class Post {
     public static final String VERSION_UPDATES_CATEGORY = "changelogs";
     public static final String PROMOTIONS_CATEGORY = "promotions";
     public static final String BLOG_CATEGORY = "news";
+    public static final String SEARCH_LOCALE = "en";
+    public static final int EXCERPT_LENGTH = 280;
 
     @Id
     @JsonIgnore
@@ -171,11 +174,23 @@ public class Post {
     @JsonSerialize
     @NotNull
     public String title() {
-        return isVersionUpdate() ? "%s v%s %s".formatted(
-                associatedProject.getMetadata().getName(),
-                associatedVersionUpdate.getName(),
-                RELEASED_POST_SUFFIX)
-                : (titleContent != null ? titleContent : "");
+        if (titleContent != null) {
+            return titleContent;
+        }
+        return isVersionUpdate()
+                ? getVersionUpdateTitle(associatedProject.getMetadata().getName(), associatedVersionUpdate.getName())
+                : "";
+    }
+
+    public void setVersionUpdateTitle(@NotNull String projectName) {
+        if (associatedVersionUpdate != null) {
+            this.titleContent = getVersionUpdateTitle(projectName, associatedVersionUpdate.getName());
+        }
+    }
+
+    @NotNull
+    public static String getVersionUpdateTitle(@NotNull String projectName, @NotNull String versionName) {
+        return "%s v%s %s".formatted(projectName, versionName, RELEASED_POST_SUFFIX);
     }
 
     public void setTitle(@NotNull String title) {
@@ -205,11 +220,48 @@ public class Post {
         this.bodyContent = body;
     }
 
+    @JsonIgnore
+    @Nullable
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @Column(length = EXCERPT_LENGTH + 1)
+    private String excerpt;
+
+    // Store the title and an excerpt, so post listings needn't load the version or project to show them
+    @PrePersist
+    @PreUpdate
+    public void updateSummary() {
+        if (titleContent == null && isVersionUpdate()) {
+            this.titleContent = title();
+        }
+        this.excerpt = getExcerpt(body());
+    }
+
+    // Whether the stored title or excerpt is missing or out of date with how they're now computed
+    public boolean hasStaleSummary() {
+        return (titleContent == null && isVersionUpdate()) || !getExcerpt(body()).equals(excerpt);
+    }
+
+    // Cut a body down to a plain-text excerpt, ending at a word boundary
+    @NotNull
+    public static String getExcerpt(@Nullable String body) {
+        if (body == null) {
+            return "";
+        }
+        final String text = MarkdownUtils.toPlainText(body);
+        if (text.length() <= EXCERPT_LENGTH) {
+            return text;
+        }
+        final int end = text.lastIndexOf(' ', EXCERPT_LENGTH);
+        return text.substring(0, end > 0 ? end : EXCERPT_LENGTH).strip() + "…";
+    }
+
     @NotNull
     public static Post fromVersion(@NotNull Version version) {
         return Post.builder()
                 .associatedVersionUpdate(version)
                 .associatedProject(version.getProject())
+                .titleContent(getVersionUpdateTitle(version.getProject().getMetadata().getName(), version.getName()))
                 .category(VERSION_UPDATES_CATEGORY)
                 .slug("%s-%s-%s"
                         .formatted(version.getProject().getSlug(), version.getName(), RELEASED_POST_SUFFIX)
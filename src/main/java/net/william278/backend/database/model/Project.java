@@ -149,6 +149,12 @@ public class Project implements Comparable<Project> {
         return this;
     }
 
+    // Copy the project with fresh stats, leaving this one untouched, for when it's shared between requests
+    @NotNull
+    public Project withStats(@NotNull StatsService stats) {
+        return new Project(slug, restricted, releaseChannels, metadata, stats.fetchStats(this));
+    }
+
     @Override
     public int compareTo(@NotNull Project o) {
         return Integer.compare(getMetadata().getSortWeight(), o.getMetadata().getSortWeight());
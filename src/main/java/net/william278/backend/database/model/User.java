@@ -174,6 +174,11 @@ public class User implements OAuth2User {
             description = "The user's avatar URL"
     )
     public URI getAvatar() {
+        return getAvatar(id, avatar);
+    }
+
+    @NotNull
+    public static URI getAvatar(@NotNull String id, @Nullable String avatar) {
         if (avatar == null) {
             final Long defaultAvatarIndex = (Long.parseLong(id.trim()) >> 22) % 6;
             return URI.create("%s/embed/avatars/%s.png".formatted(CDN_URL, defaultAvatarIndex));
@@ -32,6 +32,7 @@ import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import net.william278.backend.exception.DownloadNotFound;
+import org.hibernate.annotations.BatchSize;
 import org.jetbrains.annotations.NotNull;
 
 import java.time.Instant;
@@ -43,7 +44,10 @@ import java.util.Optional;
         description = "A version of a project on a channel, for a distribution target platform."
 )
 @Entity
-@Table(name = "versions")
+@Table(name = "versions", indexes = @Index(
+        name = "idx_versions_project_channel_timestamp",
+        columnList = "project_slug, channel_name, timestamp, id"
+))
 @Data
 @Builder
 @NoArgsConstructor
@@ -95,7 +99,9 @@ public class Version {
             description = "The downloads associated with this version.",
             minLength = 1
     )
+    // Downloads (and their distributions, which are joined) load in one query for a whole page of versions
     @OneToMany(cascade = CascadeType.ALL)
+    @BatchSize(size = 100)
     private List<Download> downloads;
 
     @Schema(
@@ -119,10 +125,6 @@ public class Version {
         return downloads.stream().map(Download::getDistribution).toList();
     }
 
-    public void incrementDownloadCount() {
-        downloadCount++;
-    }
-
     public boolean hasDistribution(@NotNull Distribution distribution) {
         return getDistributions().contains(distribution);
     }
@@ -135,7 +137,23 @@ public class Version {
 
     @NotNull
     public String getDownloadObjectName(@NotNull Distribution dist, @NotNull Download download) {
-        return String.join("/", project.getSlug(), channel.getName(), name, dist.getName(), download.getName());
+        return getDownloadObjectName(project, channel, name, dist, download);
+    }
+
+    @NotNull
+    public static String getDownloadObjectName(@NotNull Project project, @NotNull Channel channel,
+                                               @NotNull String version, @NotNull Distribution dist,
+                                               @NotNull Download download) {
+        if (download.getBlob() != null) {
+            return download.getBlob().getObjectName();
+        }
+        return getDownloadObjectName(project.getSlug(), channel.getName(), version, dist.getName(), download.getName());
+    }
+
+    @NotNull
+    public static String getDownloadObjectName(@NotNull String project, @NotNull String channel, @NotNull String version,
+                                               @NotNull String dist, @NotNull String fileName) {
+        return String.join("/", project, channel, version, dist, fileName);
     }
 
 }
@@ -0,0 +1,52 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 William278
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.william278.backend.database.repository;
+
+import net.william278.backend.database.model.Blob;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+public interface BlobRepository extends JpaRepository<Blob, String> {
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE Blob b SET b.referenceCount = b.referenceCount + 1 WHERE b.sha256 = :sha256")
+    int incrementReferences(@NotNull @Param("sha256") String sha256);
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE Blob b SET b.referenceCount = b.referenceCount - 1 WHERE b.sha256 = :sha256")
+    int decrementReferences(@NotNull @Param("sha256") String sha256);
+
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM Blob b WHERE b.sha256 = :sha256 AND b.referenceCount <= 0")
+    int deleteIfUnreferenced(@NotNull @Param("sha256") String sha256);
+
+}
@@ -24,9 +24,36 @@
 
 package net.william278.backend.database.repository;
 
+import net.william278.backend.database.model.Blob;
 import net.william278.backend.database.model.Download;
+import net.william278.backend.database.model.Project;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
 
 public interface DownloadRepository extends CrudRepository<Download, Integer> {
 
+    // An object name as built by Version#getDownloadObjectName, in the UTF-8 byte order S3 lists keys in
+    String OBJECT_NAME = "CASE WHEN b IS NULL "
+                         + "THEN CONCAT(p.slug, '/', c.name, '/', v.name, '/', dist.name, '/', d.name) "
+                         + "ELSE CONCAT('" + Blob.OBJECT_PREFIX + "', SUBSTRING(b.sha256, 1, 2), '/', b.sha256) END";
+
+    // Page through object names by keyset, returning those after the given name, each page in its own transaction
+    @Query("SELECT " + OBJECT_NAME + " FROM Version v JOIN v.project p JOIN v.channel c JOIN v.downloads d "
+           + "JOIN d.distribution dist LEFT JOIN d.blob b "
+           + "WHERE CAST(" + OBJECT_NAME + " AS Binary) > CAST(:after AS Binary) "
+           + "ORDER BY CAST(" + OBJECT_NAME + " AS Binary)")
+    @Transactional(readOnly = true)
+    @NotNull
+    List<String> findStoredObjectNamesAfter(@NotNull @Param("after") String after, @NotNull Pageable pageable);
+
+    @Query("SELECT b.sha256 FROM Version v JOIN v.downloads d JOIN d.blob b WHERE v.project = :project")
+    @NotNull
+    List<String> findBlobReferences(@NotNull @Param("project") Project project);
+
 }
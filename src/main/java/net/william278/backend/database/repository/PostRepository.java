@@ -27,11 +27,16 @@ package net.william278.backend.database.repository;
 import net.william278.backend.database.model.Post;
 import net.william278.backend.database.model.Project;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
+import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -43,20 +48,106 @@ public interface PostRepository extends JpaRepository<Post, Integer> {
     @NotNull
     Optional<Post> findBySlug(@NotNull String slug);
 
+    // Fetch just the fields a post listing shows, which are stored on the post
+    String SUMMARY_SELECT = "SELECT p.id AS id, p.slug AS slug, p.timestamp AS timestamp, p.category AS category, "
+            + "p.imageUrl AS imageUrl, p.titleContent AS title, p.excerpt AS excerpt, a.id AS authorId, "
+            + "a.name AS authorName, a.avatar AS authorAvatar, pr.slug AS projectSlug, "
+            + "CASE WHEN p.associatedVersionUpdate IS NULL THEN FALSE ELSE TRUE END AS versionUpdate "
+            + "FROM Post p LEFT JOIN p.author a LEFT JOIN p.associatedProject pr ";
+    String SUMMARY_QUERY = SUMMARY_SELECT
+            + "WHERE (:category IS NULL OR p.category = :category) AND (:project IS NULL OR pr.slug = :project) "
+            + "ORDER BY p.timestamp DESC";
+
+    @Query(value = SUMMARY_QUERY,
+            countQuery = "SELECT COUNT(p) FROM Post p LEFT JOIN p.associatedProject pr "
+                         + "WHERE (:category IS NULL OR p.category = :category) "
+                         + "AND (:project IS NULL OR pr.slug = :project)")
+    @NotNull
+    Page<Summary> findSummaries(@Nullable @Param("category") String category,
+                                @Nullable @Param("project") String project, @NotNull Pageable pageable);
+
+    // As above, but without counting every matching post
+    @Query(SUMMARY_QUERY)
     @NotNull
-    Page<Post> findAllByOrderByTimestampDesc(@NotNull Pageable pageable);
+    Slice<Summary> findSummarySlice(@Nullable @Param("category") String category,
+                                    @Nullable @Param("project") String project, @NotNull Pageable pageable);
 
+    @Query(SUMMARY_SELECT + "WHERE p.id IN :ids")
     @NotNull
-    Page<Post> findAllByCategoryOrderByTimestampDesc(@NotNull Pageable pageable, @NotNull String category);
+    List<Summary> findSummariesById(@NotNull @Param("ids") Collection<Integer> ids);
 
     @NotNull
-    Page<Post> findAllByAssociatedProjectOrderByTimestampDesc(@NotNull Pageable pageable, @NotNull Project project);
+    List<Post> findAllByAssociatedProjectAndAssociatedVersionUpdateIsNotNull(@NotNull Project project);
 
+    @Query("SELECT p.category AS name, COUNT(p) AS total, MAX(p.timestamp) AS latest FROM Post p "
+           + "GROUP BY p.category ORDER BY p.category DESC")
     @NotNull
-    Page<Post> findAllByTitleContentContainingIgnoreCaseOrderByTimestampDesc(@NotNull String title, Pageable pageable);
+    List<CategoryStats> getCategoryStats();
 
-    @Query("SELECT DISTINCT p.category FROM Post p ORDER BY p.category DESC")
+    // Fetch just what the search index needs, without loading each post's version, project and author
+    @Query("SELECT p.id AS id, p.slug AS slug, p.titleContent AS title, "
+           + "CASE WHEN v IS NULL THEN p.bodyContent ELSE v.changelog END AS body "
+           + "FROM Post p LEFT JOIN p.associatedVersionUpdate v")
     @NotNull
-    List<String> getAllCategories();
+    List<Searchable> findAllSearchable();
+
+    interface CategoryStats {
+
+        String getName();
+
+        long getTotal();
+
+        Instant getLatest();
+
+    }
+
+    interface Summary {
+
+        Integer getId();
+
+        String getSlug();
+
+        Instant getTimestamp();
+
+        String getCategory();
+
+        @Nullable
+        String getImageUrl();
+
+        @Nullable
+        String getTitle();
+
+        @Nullable
+        String getAuthorId();
+
+        @Nullable
+        String getAuthorName();
+
+        @Nullable
+        String getAuthorAvatar();
+
+        @Nullable
+        String getProjectSlug();
+
+        boolean isVersionUpdate();
+
+        @Nullable
+        String getExcerpt();
+
+    }
+
+    interface Searchable {
+
+        Integer getId();
+
+        String getSlug();
+
+        @Nullable
+        String getTitle();
+
+        @Nullable
+        String getBody();
+
+    }
 
 }
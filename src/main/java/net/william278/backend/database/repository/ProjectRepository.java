@@ -26,6 +26,7 @@ package net.william278.backend.database.repository;
 
 import net.william278.backend.database.model.Project;
 import org.jetbrains.annotations.NotNull;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.repository.CrudRepository;
 
 import java.util.List;
@@ -36,6 +37,11 @@ public interface ProjectRepository extends CrudRepository<Project, String> {
     @NotNull
     Optional<Project> findById(@NotNull String id);
 
+    // Loads release channels up front, so they can be updated outside of a request's session
+    @NotNull
+    @EntityGraph(attributePaths = "releaseChannels")
+    Optional<Project> findWithReleaseChannelsBySlug(@NotNull String slug);
+
     @NotNull
     List<Project> findAll();
 
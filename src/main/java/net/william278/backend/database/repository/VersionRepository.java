@@ -26,15 +26,22 @@ package net.william278.backend.database.repository;
 
 import net.william278.backend.database.model.Channel;
 import net.william278.backend.database.model.Distribution;
+import net.william278.backend.database.model.Download;
 import net.william278.backend.database.model.Project;
 import net.william278.backend.database.model.Version;
 import org.jetbrains.annotations.NotNull;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 public interface VersionRepository extends JpaRepository<Version, Integer> {
@@ -49,17 +56,145 @@ public interface VersionRepository extends JpaRepository<Version, Integer> {
     @Query("SELECT SUM(v.downloadCount) FROM Version v WHERE v.project = :project")
     Integer sumDownloadCountByProject(@Param("project") Project project);
 
+    // Versions are listed without their changelogs, newest first, in (timestamp, id) order to match the composite index
+    String LISTING_QUERY = "SELECT v.id AS id, v.name AS name, v.timestamp AS timestamp, "
+            + "v.downloadCount AS downloadCount FROM Version v ";
+    String ON_CHANNEL = "WHERE v.project = :project AND v.channel = :channel ";
+    String ON_CHANNEL_WITH_DISTRIBUTION = "JOIN v.downloads d "
+            + "WHERE v.project = :project AND v.channel = :channel AND d.distribution = :distribution ";
+    String BEFORE_CURSOR = "AND (v.timestamp < :timestamp OR (v.timestamp = :timestamp AND v.id < :id)) ";
+    String NEWEST_FIRST = "ORDER BY v.timestamp DESC, v.id DESC";
+
+    @NotNull
+    @Query(value = LISTING_QUERY + ON_CHANNEL + NEWEST_FIRST,
+            countQuery = "SELECT COUNT(v) FROM Version v " + ON_CHANNEL)
+    Page<Listing> findListingPage(@NotNull @Param("project") Project project,
+                                  @NotNull @Param("channel") Channel channel,
+                                  @NotNull PageRequest pageRequest);
+
+    @NotNull
+    @Query(value = LISTING_QUERY + ON_CHANNEL_WITH_DISTRIBUTION + NEWEST_FIRST,
+            countQuery = "SELECT COUNT(v) FROM Version v " + ON_CHANNEL_WITH_DISTRIBUTION)
+    Page<Listing> findListingPageWithDistribution(@NotNull @Param("project") Project project,
+                                                  @NotNull @Param("channel") Channel channel,
+                                                  @NotNull @Param("distribution") Distribution distribution,
+                                                  @NotNull PageRequest pageRequest);
+
+    // Seek pagination; a list rather than a page, so no count is queried
+    @NotNull
+    @Query(LISTING_QUERY + ON_CHANNEL + NEWEST_FIRST)
+    List<Listing> findListings(@NotNull @Param("project") Project project,
+                               @NotNull @Param("channel") Channel channel,
+                               @NotNull PageRequest pageRequest);
+
+    @NotNull
+    @Query(LISTING_QUERY + ON_CHANNEL + BEFORE_CURSOR + NEWEST_FIRST)
+    List<Listing> findListingsBefore(@NotNull @Param("project") Project project,
+                                     @NotNull @Param("channel") Channel channel,
+                                     @NotNull @Param("timestamp") Instant timestamp,
+                                     @Param("id") int id,
+                                     @NotNull PageRequest pageRequest);
+
+    @NotNull
+    @Query(LISTING_QUERY + ON_CHANNEL_WITH_DISTRIBUTION + NEWEST_FIRST)
+    List<Listing> findListingsWithDistribution(@NotNull @Param("project") Project project,
+                                               @NotNull @Param("channel") Channel channel,
+                                               @NotNull @Param("distribution") Distribution distribution,
+                                               @NotNull PageRequest pageRequest);
+
     @NotNull
-    Page<Version> getAllByProjectAndChannelOrderByTimestampDesc(@NotNull Project project, @NotNull Channel channel,
-                                                                @NotNull PageRequest pageRequest);
+    @Query(LISTING_QUERY + ON_CHANNEL_WITH_DISTRIBUTION + BEFORE_CURSOR + NEWEST_FIRST)
+    List<Listing> findListingsBeforeWithDistribution(@NotNull @Param("project") Project project,
+                                                     @NotNull @Param("channel") Channel channel,
+                                                     @NotNull @Param("distribution") Distribution distribution,
+                                                     @NotNull @Param("timestamp") Instant timestamp,
+                                                     @Param("id") int id,
+                                                     @NotNull PageRequest pageRequest);
 
+    // The downloads of listed versions, with their distributions and blobs, in one query
     @NotNull
-    Page<Version> getAllByProjectAndChannelAndDownloadsDistributionOrderByTimestampDesc(@NotNull Project project,
-                                                                                        @NotNull Channel channel,
-                                                                                        @NotNull Distribution distribution,
-                                                                                        @NotNull PageRequest pageRequest);
+    @Query("SELECT v.id AS versionId, d AS download FROM Version v JOIN v.downloads d "
+            + "JOIN FETCH d.distribution LEFT JOIN FETCH d.blob WHERE v.id IN :ids ORDER BY d.id")
+    List<ListedDownload> findListedDownloads(@NotNull @Param("ids") Collection<Integer> ids);
+
+    @NotNull
+    @Query("SELECT v.id AS id, v.changelog AS changelog FROM Version v WHERE v.id IN :ids")
+    List<Changelog> findChangelogs(@NotNull @Param("ids") Collection<Integer> ids);
+
+    // Find a version's download for a distribution, without loading the version's changelog. The name is
+    // returned as stored, since it's matched case-insensitively but objects are keyed by the exact name
+    @NotNull
+    @Query("SELECT v.id AS versionId, v.name AS name, v.timestamp AS timestamp, d AS download "
+            + "FROM Version v JOIN v.downloads d "
+            + "WHERE v.project = :project AND v.channel = :channel AND v.name = :name "
+            + "AND d.distribution = :distribution")
+    Optional<DownloadTarget> findDownloadTarget(@NotNull @Param("project") Project project,
+                                                @NotNull @Param("channel") Channel channel,
+                                                @NotNull @Param("name") String name,
+                                                @NotNull @Param("distribution") Distribution distribution);
+
+    boolean existsByProjectAndChannelAndName(@NotNull Project project, @NotNull Channel channel,
+                                             @NotNull String name);
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE Version v SET v.downloadCount = v.downloadCount + 1 WHERE v.id = :id")
+    int incrementDownloadCount(@Param("id") int id);
+
+    long countByProjectAndChannel(@NotNull Project project, @NotNull Channel channel);
+
+    long countByProjectAndChannelAndDownloadsDistribution(@NotNull Project project, @NotNull Channel channel,
+                                                          @NotNull Distribution distribution);
 
     @NotNull
     Optional<Version> getTopByProjectAndChannelOrderByTimestampDesc(@NotNull Project project, @NotNull Channel channel);
 
+    // The latest versions on each of a project's channels, with their downloads, in one query.
+    // Fetching downloads up front lets the versions be serialized after their session has closed
+    @NotNull
+    @EntityGraph(attributePaths = "downloads")
+    @Query("SELECT v FROM Version v WHERE v.project = :project AND v.timestamp = ("
+            + "SELECT MAX(l.timestamp) FROM Version l WHERE l.project = v.project AND l.channel = v.channel)")
+    List<Version> findLatestOnEachChannel(@NotNull @Param("project") Project project);
+
+    interface Listing {
+
+        Integer getId();
+
+        String getName();
+
+        Instant getTimestamp();
+
+        long getDownloadCount();
+
+    }
+
+    interface ListedDownload {
+
+        Integer getVersionId();
+
+        Download getDownload();
+
+    }
+
+    interface Changelog {
+
+        Integer getId();
+
+        String getChangelog();
+
+    }
+
+    interface DownloadTarget {
+
+        Integer getVersionId();
+
+        String getName();
+
+        Instant getTimestamp();
+
+        Download getDownload();
+
+    }
+
 }
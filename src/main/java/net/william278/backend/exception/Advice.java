@@ -47,6 +47,24 @@ class Advice {
         return this.error(HttpStatus.INTERNAL_SERVER_ERROR, "An internal error occurred while uploading a file.");
     }
 
+    @ExceptionHandler(UploadNotFound.class)
+    @ResponseBody
+    public ResponseEntity<?> uploadNotFound(final UploadNotFound exception) {
+        return this.error(HttpStatus.NOT_FOUND, "Upload not found or expired.");
+    }
+
+    @ExceptionHandler(StorageException.class)
+    @ResponseBody
+    public ResponseEntity<?> storageException(final StorageException exception) {
+        return this.error(HttpStatus.SERVICE_UNAVAILABLE, "File storage is temporarily unavailable.");
+    }
+
+    @ExceptionHandler(InvalidUpload.class)
+    @ResponseBody
+    public ResponseEntity<?> invalidUpload(final InvalidUpload exception) {
+        return this.error(HttpStatus.BAD_REQUEST, "Uploaded files are missing or don't match their declared size and checksum.");
+    }
+
     @ExceptionHandler(DownloadNotFound.class)
     @ResponseBody
     public ResponseEntity<?> downloadNotFound(final DownloadNotFound exception) {
@@ -89,10 +107,10 @@ class Advice {
         return this.error(HttpStatus.NOT_FOUND, "Docs page not found.");
     }
 
-    @ExceptionHandler(FailedToUpdateDocs.class)
+    @ExceptionHandler(DocsWarming.class)
     @ResponseBody
-    public ResponseEntity<?> failedToUpdateDocs(final FailedToUpdateDocs exception) {
-        return this.error(HttpStatus.INTERNAL_SERVER_ERROR, "Failed to update docs.");
+    public ResponseEntity<?> docsWarming(final DocsWarming exception) {
+        return this.error(HttpStatus.SERVICE_UNAVAILABLE, "Docs are warming up, please try again shortly.");
     }
 
     @ExceptionHandler(VersionNotFound.class)
@@ -101,6 +119,12 @@ class Advice {
         return this.error(HttpStatus.NOT_FOUND, "Version not found.");
     }
 
+    @ExceptionHandler(VersionAlreadyExists.class)
+    @ResponseBody
+    public ResponseEntity<?> versionAlreadyExists(final VersionAlreadyExists exception) {
+        return this.error(HttpStatus.CONFLICT, "A version with this name already exists on this channel.");
+    }
+
     @ExceptionHandler(UserNotFound.class)
     @ResponseBody
     public ResponseEntity<?> userNotFound(final UserNotFound exception) {
@@ -113,6 +137,18 @@ class Advice {
         return this.error(HttpStatus.NOT_FOUND, "Ticket not found.");
     }
 
+    @ExceptionHandler(BatchTooLarge.class)
+    @ResponseBody
+    public ResponseEntity<?> batchTooLarge(final BatchTooLarge exception) {
+        return this.error(HttpStatus.BAD_REQUEST, "Too many items were requested at once.");
+    }
+
+    @ExceptionHandler(InvalidCursor.class)
+    @ResponseBody
+    public ResponseEntity<?> invalidCursor(final InvalidCursor exception) {
+        return this.error(HttpStatus.BAD_REQUEST, "Invalid pagination cursor.");
+    }
+
     @ExceptionHandler(TicketNotClosed.class)
     @ResponseBody
     public ResponseEntity<?> ticketNotClosed(final TicketNotClosed exception) {
@@ -26,9 +26,9 @@ package net.william278.backend.exception;
 
 import java.io.Serial;
 
-public class FailedToUpdateDocs extends RuntimeException {
+public class BatchTooLarge extends RuntimeException {
 
     @Serial
-    private static final long serialVersionUID = 345643856123L;
+    private static final long serialVersionUID = 582039174620391L;
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,151 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 William278
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.william278.backend.service;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import net.william278.backend.configuration.AppConfiguration;
+import net.william278.backend.database.model.Blob;
+import net.william278.backend.database.repository.BlobRepository;
+import net.william278.backend.exception.UploadFailed;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+@Slf4j
+@Service
+public class BlobService {
+
+    private final BlobRepository blobs;
+    private final StorageService storage;
+
+    @Getter
+    private final boolean enabled;
+
+    @Autowired
+    public BlobService(@NotNull AppConfiguration config, @NotNull BlobRepository blobs,
+                       @NotNull StorageService storage) {
+        this.enabled = config.isContentAddressedStorage();
+        this.blobs = blobs;
+        this.storage = storage;
+    }
+
+    // Store a file by its SHA-256, only uploading it if an identical blob isn't already stored. The blob isn't
+    // referenced until its download is saved, so a failed batch of uploads doesn't leave references behind
+    @NotNull
+    public CompletableFuture<Blob> store(@NotNull MultipartFile file, @NotNull String contentType) throws IOException {
+        final Blob hashed = hash(file);
+        final Optional<Blob> existing = find(hashed.getSha256())
+                .filter(blob -> blob.getFileSize() == hashed.getFileSize() && blob.getMd5().equals(hashed.getMd5()));
+        if (existing.isPresent()) {
+            log.info("Upload matches stored blob {}, skipping upload", hashed.getSha256());
+            return CompletableFuture.completedFuture(existing.get());
+        }
+
+        return storage.uploadVersion(file, hashed.getFileSize(), contentType, hashed.getObjectName())
+                .thenApply(uploaded -> {
+                    if (!uploaded) {
+                        throw new UploadFailed();
+                    }
+                    return hashed;
+                });
+    }
+
+    @NotNull
+    public Optional<Blob> find(@NotNull String sha256) {
+        return blobs.findById(sha256);
+    }
+
+    // Add a reference to a blob, creating it if it isn't stored yet
+    @NotNull
+    public Blob reference(@NotNull Blob blob) {
+        if (blobs.incrementReferences(blob.getSha256()) > 0) {
+            return blobs.findById(blob.getSha256()).orElse(blob);
+        }
+        try {
+            blob.setReferenceCount(1);
+            return blobs.saveAndFlush(blob);
+        } catch (DataIntegrityViolationException e) {
+            // Another upload stored the same blob concurrently
+            blobs.incrementReferences(blob.getSha256());
+            return blobs.findById(blob.getSha256()).orElse(blob);
+        }
+    }
+
+    // Remove a reference to a blob, dropping it once unreferenced; its object is left to the orphan collector
+    public void release(@NotNull Blob blob) {
+        release(blob.getSha256());
+    }
+
+    public void release(@NotNull String sha256) {
+        blobs.decrementReferences(sha256);
+        if (blobs.deleteIfUnreferenced(sha256) > 0) {
+            log.info("Blob {} is no longer referenced", sha256);
+        }
+    }
+
+    @NotNull
+    public static Blob hash(@NotNull MultipartFile file) throws IOException {
+        try (InputStream stream = file.getInputStream()) {
+            return hash(stream);
+        }
+    }
+
+    // Hash a stream's contents, counting its size
+    @NotNull
+    public static Blob hash(@NotNull InputStream stream) throws IOException {
+        final MessageDigest md5, sha256;
+        try {
+            md5 = MessageDigest.getInstance("MD5");
+            sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Missing required digest algorithm", e);
+        }
+
+        final long size;
+        try (OutputStream digest = new DigestOutputStream(new DigestOutputStream(OutputStream.nullOutputStream(),
+                md5), sha256)) {
+            size = stream.transferTo(digest);
+        }
+        return Blob.builder()
+                .sha256(HexFormat.of().formatHex(sha256.digest()))
+                .md5(HexFormat.of().formatHex(md5.digest()))
+                .fileSize(size)
+                .build();
+    }
+
+}
@@ -0,0 +1,102 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 William278
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.william278.backend.service;
+
+import net.william278.backend.controller.v1.DocsController;
+import org.commonmark.Extension;
+import org.commonmark.ext.autolink.AutolinkExtension;
+import org.commonmark.ext.gfm.strikethrough.StrikethroughExtension;
+import org.commonmark.ext.gfm.tables.TablesExtension;
+import org.commonmark.ext.heading.anchor.IdGenerator;
+import org.commonmark.node.*;
+import org.commonmark.parser.Parser;
+import org.commonmark.renderer.html.HtmlRenderer;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Renders docs pages from markdown to HTML, with an anchor on each heading and a table of contents linking to them
+public final class DocsRenderer {
+
+    private static final List<Extension> EXTENSIONS = List.of(
+            TablesExtension.create(), StrikethroughExtension.create(), AutolinkExtension.create()
+    );
+
+    private final Parser parser = Parser.builder().extensions(EXTENSIONS).build();
+
+    @NotNull
+    public DocsController.RenderedDocsPage render(@NotNull DocsController.DocsPage page) {
+        final Node document = parser.parse(page.content());
+
+        // Give each heading a GitHub-style anchor, numbering repeats, and list them in order
+        final IdGenerator ids = IdGenerator.builder().build();
+        final Map<Node, String> anchors = new IdentityHashMap<>();
+        final List<DocsController.DocsHeading> toc = new ArrayList<>();
+        document.accept(new AbstractVisitor() {
+            @Override
+            public void visit(Heading heading) {
+                final String title = getText(heading);
+                final String anchor = ids.generateId(title);
+                anchors.put(heading, anchor);
+                toc.add(new DocsController.DocsHeading(heading.getLevel(), title, anchor));
+            }
+        });
+
+        // Raw HTML in the markdown is escaped, so the output is safe to embed as-is
+        final HtmlRenderer renderer = HtmlRenderer.builder()
+                .extensions(EXTENSIONS)
+                .escapeHtml(true)
+                .sanitizeUrls(true)
+                .attributeProviderFactory(context -> (node, tag, attributes) -> {
+                    final String anchor = anchors.get(node);
+                    if (anchor != null) {
+                        attributes.put("id", anchor);
+                    }
+                })
+                .build();
+        return new DocsController.RenderedDocsPage(page.slug(), page.title(), renderer.render(document), toc);
+    }
+
+    @NotNull
+    private static String getText(@NotNull Node node) {
+        final StringBuilder text = new StringBuilder();
+        node.accept(new AbstractVisitor() {
+            @Override
+            public void visit(Text node) {
+                text.append(node.getLiteral());
+            }
+
+            @Override
+            public void visit(Code node) {
+                text.append(node.getLiteral());
+            }
+        });
+        return text.toString().trim();
+    }
+
+}
@@ -0,0 +1,316 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 William278
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.william278.backend.service;
+
+import lombok.extern.slf4j.Slf4j;
+import net.william278.backend.configuration.AppConfiguration;
+import net.william278.backend.database.model.Post;
+import net.william278.backend.database.model.Project;
+import net.william278.backend.database.model.User;
+import net.william278.backend.database.repository.PostRepository;
+import net.william278.backend.database.repository.ProjectRepository;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.util.DigestUtils;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+// Keeps Atom and RSS feeds of the latest posts serialized in memory, updating them as posts are saved and deleted
+@Slf4j
+@Service
+public class FeedService {
+
+    private static final int FEED_SIZE = 20;
+    private static final String ATOM_NAMESPACE = "http://www.w3.org/2005/Atom";
+    private static final XMLOutputFactory XML = XMLOutputFactory.newFactory();
+
+    private final Map<FeedKey, Feed> feeds;
+    private final PostRepository posts;
+    private final ProjectRepository projects;
+    private final AppConfiguration config;
+
+    public FeedService(PostRepository posts, ProjectRepository projects, AppConfiguration config) {
+        this.feeds = new ConcurrentHashMap<>();
+        this.posts = posts;
+        this.projects = projects;
+        this.config = config;
+
+        final long startedAt = System.currentTimeMillis();
+        reload(FeedKey.ALL);
+        posts.getCategoryStats().forEach(category -> reload(new FeedKey(Scope.CATEGORY, category.getName())));
+        projects.findAll().forEach(project -> reload(new FeedKey(Scope.PROJECT, project.getSlug())));
+        log.info("Built {} post feeds in {}ms", feeds.size(), System.currentTimeMillis() - startedAt);
+    }
+
+    // Get a feed without touching the database, unless it's for a project that's had no posts since startup
+    @NotNull
+    public Optional<Feed> getFeed(@NotNull FeedKey key) {
+        final Feed feed = feeds.get(key);
+        if (feed != null) {
+            return Optional.of(feed);
+        }
+        return switch (key.scope()) {
+            case PROJECT -> projects.findById(key.value()).map(project -> reload(key));
+            case CATEGORY -> Optional.of(build(key, List.of(), null));
+            case ALL -> Optional.empty();
+        };
+    }
+
+    // Add or replace a post in the feeds it belongs in, and take it out of any it no longer does
+    public void onSaved(@NotNull Post post) {
+        final Entry entry = Entry.from(post);
+        final Set<FeedKey> keys = entry.getFeedKeys();
+        feeds.forEach((key, feed) -> {
+            if (!keys.contains(key) && feed.contains(entry.slug())) {
+                reload(key);
+            }
+        });
+        keys.forEach(key -> feeds.compute(key, (k, feed) -> build(k, Stream.concat(
+                        Stream.of(entry),
+                        feed == null ? Stream.empty() : feed.entries().stream()
+                                .filter(existing -> !existing.slug().equals(entry.slug())))
+                .sorted(Comparator.comparing(Entry::timestamp).reversed())
+                .limit(FEED_SIZE)
+                .toList(), feed)));
+    }
+
+    // Take a post out of its feeds, refilling them from the database
+    public void onDeleted(@NotNull Post post) {
+        feeds.forEach((key, feed) -> {
+            if (feed.contains(post.getSlug())) {
+                reload(key);
+            }
+        });
+    }
+
+    @NotNull
+    private Feed reload(@NotNull FeedKey key) {
+        final List<Entry> entries = posts.findSummarySlice(
+                key.scope() == Scope.CATEGORY ? key.value() : null,
+                key.scope() == Scope.PROJECT ? key.value() : null,
+                PageRequest.of(0, FEED_SIZE)
+        ).map(Entry::from).toList();
+        final Feed feed = build(key, entries, feeds.get(key));
+        feeds.put(key, feed);
+        return feed;
+    }
+
+    // Build a feed, keeping the previous build's last modified time only if the output hasn't changed. An
+    // edited or removed post changes the feed without changing the newest entry's timestamp. A feed that's
+    // always been empty, like one for an unknown category, which isn't kept, was never modified
+    @NotNull
+    private Feed build(@NotNull FeedKey key, @NotNull List<Entry> entries, @Nullable Feed previous) {
+        final Instant updated = entries.isEmpty() ? Instant.EPOCH : entries.get(0).timestamp();
+        final String title = switch (key.scope()) {
+            case ALL -> "Posts";
+            case CATEGORY -> "Posts in %s".formatted(entries.isEmpty() ? key.value() : entries.get(0).category());
+            case PROJECT -> "%s posts".formatted(projects.findById(key.value())
+                    .map(project -> project.getMetadata().getName()).orElse(key.value()));
+        };
+        try {
+            final byte[] atom = writeAtom(key, title, entries, updated);
+            final byte[] rss = writeRss(key, title, entries);
+            final String atomETag = "\"%s\"".formatted(DigestUtils.md5DigestAsHex(atom));
+            final String rssETag = "\"%s\"".formatted(DigestUtils.md5DigestAsHex(rss));
+            final boolean unchanged = previous != null
+                                      && previous.atomETag().equals(atomETag) && previous.rssETag().equals(rssETag);
+            final Instant lastModified = unchanged ? previous.lastModified() : previous == null && entries.isEmpty()
+                    ? Instant.EPOCH : Instant.now().truncatedTo(ChronoUnit.SECONDS);
+            return new Feed(entries, atom, rss, lastModified, atomETag, rssETag);
+        } catch (XMLStreamException e) {
+            throw new IllegalStateException("Failed to write feed " + key, e);
+        }
+    }
+
+    private byte[] writeAtom(@NotNull FeedKey key, @NotNull String title, @NotNull List<Entry> entries,
+                             @NotNull Instant updated) throws XMLStreamException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final XMLStreamWriter xml = XML.createXMLStreamWriter(bytes, StandardCharsets.UTF_8.name());
+        xml.writeStartDocument(StandardCharsets.UTF_8.name(), "1.0");
+        xml.writeStartElement("feed");
+        xml.writeDefaultNamespace(ATOM_NAMESPACE);
+        writeElement(xml, "id", getFeedUrl(key, "atom"));
+        writeElement(xml, "title", title);
+        writeElement(xml, "updated", DateTimeFormatter.ISO_INSTANT.format(updated));
+        writeLink(xml, "self", getFeedUrl(key, "atom"));
+        writeLink(xml, "alternate", config.getFrontendBaseUrl().toString());
+        xml.writeStartElement("author");
+        writeElement(xml, "name", config.getFrontendBaseUrl().getHost());
+        xml.writeEndElement();
+        for (Entry entry : entries) {
+            xml.writeStartElement("entry");
+            writeElement(xml, "id", getPostUrl(entry));
+            writeElement(xml, "title", entry.title());
+            writeElement(xml, "updated", DateTimeFormatter.ISO_INSTANT.format(entry.timestamp()));
+            writeLink(xml, "alternate", getPostUrl(entry));
+            if (entry.author() != null) {
+                xml.writeStartElement("author");
+                writeElement(xml, "name", entry.author());
+                xml.writeEndElement();
+            }
+            xml.writeEmptyElement("category");
+            xml.writeAttribute("term", entry.category());
+            writeElement(xml, "summary", entry.excerpt());
+            xml.writeEndElement();
+        }
+        xml.writeEndElement();
+        xml.writeEndDocument();
+        xml.close();
+        return bytes.toByteArray();
+    }
+
+    private byte[] writeRss(@NotNull FeedKey key, @NotNull String title,
+                            @NotNull List<Entry> entries) throws XMLStreamException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final XMLStreamWriter xml = XML.createXMLStreamWriter(bytes, StandardCharsets.UTF_8.name());
+        xml.writeStartDocument(StandardCharsets.UTF_8.name(), "1.0");
+        xml.writeStartElement("rss");
+        xml.writeAttribute("version", "2.0");
+        xml.writeStartElement("channel");
+        writeElement(xml, "title", title);
+        writeElement(xml, "link", config.getFrontendBaseUrl().toString());
+        writeElement(xml, "description", title);
+        for (Entry entry : entries) {
+            xml.writeStartElement("item");
+            writeElement(xml, "title", entry.title());
+            writeElement(xml, "link", getPostUrl(entry));
+            writeElement(xml, "guid", getPostUrl(entry));
+            writeElement(xml, "pubDate", DateTimeFormatter.RFC_1123_DATE_TIME
+                    .format(entry.timestamp().atOffset(ZoneOffset.UTC)));
+            writeElement(xml, "category", entry.category());
+            writeElement(xml, "description", entry.excerpt());
+            xml.writeEndElement();
+        }
+        xml.writeEndElement();
+        xml.writeEndElement();
+        xml.writeEndDocument();
+        xml.close();
+        return bytes.toByteArray();
+    }
+
+    private static void writeElement(@NotNull XMLStreamWriter xml, @NotNull String name,
+                                     @NotNull String text) throws XMLStreamException {
+        xml.writeStartElement(name);
+        xml.writeCharacters(text);
+        xml.writeEndElement();
+    }
+
+    private static void writeLink(@NotNull XMLStreamWriter xml, @NotNull String rel,
+                                  @NotNull String href) throws XMLStreamException {
+        xml.writeEmptyElement("link");
+        xml.writeAttribute("rel", rel);
+        xml.writeAttribute("href", href);
+    }
+
+    @NotNull
+    private String getFeedUrl(@NotNull FeedKey key, @NotNull String format) {
+        return switch (key.scope()) {
+            case ALL -> "%s/v1/posts/feed?format=%s".formatted(config.getApiBaseUrl(), format);
+            case CATEGORY -> "%s/v1/posts/feed?format=%s&categoryFilter=%s"
+                    .formatted(config.getApiBaseUrl(), format, key.value());
+            case PROJECT -> "%s/v1/projects/%s/posts/feed?format=%s"
+                    .formatted(config.getApiBaseUrl(), key.value(), format);
+        };
+    }
+
+    @NotNull
+    private String getPostUrl(@NotNull Entry entry) {
+        return "%s/posts/%s".formatted(config.getFrontendBaseUrl(), entry.slug());
+    }
+
+    public enum Scope {
+        ALL,
+        CATEGORY,
+        PROJECT
+    }
+
+    // Values are kept in lower case, as the database matches categories case-insensitively
+    public record FeedKey(@NotNull Scope scope, @NotNull String value) {
+
+        public static final FeedKey ALL = new FeedKey(Scope.ALL, "");
+
+        public FeedKey {
+            value = value.toLowerCase(Locale.ROOT);
+        }
+
+    }
+
+    // A serialized feed, with the entries it was built from
+    public record Feed(@NotNull List<Entry> entries, byte[] atom, byte[] rss, @NotNull Instant lastModified,
+                       @NotNull String atomETag, @NotNull String rssETag) {
+
+        private boolean contains(@NotNull String slug) {
+            return entries.stream().anyMatch(entry -> entry.slug().equals(slug));
+        }
+
+    }
+
+    private record Entry(@NotNull String slug, @NotNull String title, @NotNull String excerpt,
+                         @NotNull Instant timestamp, @NotNull String category, @Nullable String project,
+                         @Nullable String author) {
+
+        @NotNull
+        private static Entry from(@NotNull Post post) {
+            final User author = post.getAuthor();
+            final Project project = post.getAssociatedProject();
+            return new Entry(post.getSlug(), post.title(), Post.getExcerpt(post.body()), post.getTimestamp(),
+                    post.getCategory(), project != null ? project.getSlug() : null,
+                    author != null ? author.getName() : null);
+        }
+
+        @NotNull
+        private static Entry from(@NotNull PostRepository.Summary summary) {
+            return new Entry(summary.getSlug(), Objects.requireNonNullElse(summary.getTitle(), ""),
+                    Objects.requireNonNullElse(summary.getExcerpt(), ""), summary.getTimestamp(),
+                    summary.getCategory(), summary.getProjectSlug(), summary.getAuthorName());
+        }
+
+        @NotNull
+        private Set<FeedKey> getFeedKeys() {
+            final Set<FeedKey> keys = new HashSet<>();
+            keys.add(FeedKey.ALL);
+            keys.add(new FeedKey(Scope.CATEGORY, category));
+            if (project != null) {
+                keys.add(new FeedKey(Scope.PROJECT, project));
+            }
+            return keys;
+        }
+
+    }
+
+}
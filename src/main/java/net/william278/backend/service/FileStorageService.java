@@ -0,0 +1,268 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 William278
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.william278.backend.service;
+
+import lombok.extern.slf4j.Slf4j;
+import net.william278.backend.configuration.AppConfiguration;
+import net.william278.backend.database.model.Asset;
+import net.william278.backend.exception.StorageException;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Service;
+import org.springframework.util.DigestUtils;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+// Stores files on local disk, with a directory in place of each S3 bucket
+@Slf4j
+@Service
+@ConditionalOnProperty(prefix = "app", name = "storage-backend", havingValue = "filesystem")
+public class FileStorageService implements StorageBackend {
+
+    private static final String TEMP_FILE_PREFIX = ".upload-";
+
+    private final Path assets;
+    private final Path downloads;
+    private final Path tickets;
+
+    @Autowired
+    public FileStorageService(@NotNull AppConfiguration config) {
+        final Path root = Path.of(config.getStoragePath()).toAbsolutePath().normalize();
+        this.assets = root.resolve(config.getS3AssetsBucket());
+        this.downloads = root.resolve(config.getS3DownloadsBucket());
+        this.tickets = root.resolve(config.getS3TicketsBucket());
+        try {
+            Files.createDirectories(assets);
+            Files.createDirectories(downloads);
+            Files.createDirectories(tickets);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to create storage directories in %s".formatted(root), e);
+        }
+        log.info("Storing files on local disk in {}", root);
+    }
+
+    // Transcripts are only reachable through a presigned URL, which local disk can't issue
+    @Override
+    public Optional<String> getTranscriptUrl(long ticketNumber) {
+        return Optional.empty();
+    }
+
+    @Override
+    public void deleteTranscript(long ticketNumber) {
+        delete(tickets, StorageBackend.getTicketObjectName(ticketNumber));
+    }
+
+    @Override
+    public void uploadAsset(@NotNull MultipartFile file, @NotNull Asset asset) {
+        try (InputStream stream = file.getInputStream()) {
+            write(assets, asset.getName(), stream, file.getSize());
+        } catch (IOException e) {
+            throw new StorageException("Failed to read asset '%s'".formatted(asset.getName()), e, false);
+        }
+    }
+
+    @Override
+    public void deleteAsset(@NotNull Asset asset) {
+        delete(assets, asset.getName());
+    }
+
+    @Override
+    public boolean uploadVersion(@NotNull InputStream versionStream, long size,
+                                 @NotNull String contentType, @NotNull String objectName) {
+        write(downloads, objectName, versionStream, size);
+        return true;
+    }
+
+    @Override
+    public Optional<Resource> downloadVersion(@NotNull String objectName) {
+        final Path path = resolve(downloads, objectName);
+        return Files.isRegularFile(path) ? Optional.of(new FileChannelResource(path)) : Optional.empty();
+    }
+
+    // Clients can't upload to local disk directly, so they must upload through the API instead
+    @Override
+    public Optional<String> getVersionUploadUrl(@NotNull String objectName) {
+        return Optional.empty();
+    }
+
+    @Override
+    public Optional<StoredFile> statVersion(@NotNull String objectName) {
+        final Path path = resolve(downloads, objectName);
+        if (!Files.isRegularFile(path)) {
+            return Optional.empty();
+        }
+
+        // Files don't keep an ETag, so compute the MD5 one S3 would give them
+        try (InputStream stream = Files.newInputStream(path)) {
+            final BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            return Optional.of(new StoredFile(objectName, attributes.size(), DigestUtils.md5DigestAsHex(stream),
+                    attributes.lastModifiedTime().toInstant()));
+        } catch (NoSuchFileException e) {
+            return Optional.empty();
+        } catch (IOException e) {
+            throw new StorageException("Failed to stat version '%s'".formatted(objectName), e, false);
+        }
+    }
+
+    @NotNull
+    @Override
+    public Iterator<StoredFile> listVersionObjects() {
+        try (Stream<Path> files = Files.walk(downloads)) {
+            return files.filter(Files::isRegularFile)
+                    .filter(path -> !path.getFileName().toString().startsWith(TEMP_FILE_PREFIX))
+                    .map(this::toStoredFile)
+                    .sorted(Comparator.comparing(StoredFile::name))
+                    .toList().iterator();
+        } catch (IOException | UncheckedIOException e) {
+            throw new StorageException("Failed to list version objects", e, false);
+        }
+    }
+
+    @Override
+    public int deleteVersions(@NotNull List<String> objectNames) {
+        return (int) objectNames.stream().filter(name -> delete(downloads, name)).count();
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return true;
+    }
+
+    // Write to a temporary file alongside the target, then move it into place so readers never see a partial file
+    private void write(@NotNull Path root, @NotNull String name, @NotNull InputStream stream, long size) {
+        final Path target = resolve(root, name);
+        Path temp = null;
+        try {
+            Files.createDirectories(target.getParent());
+            temp = Files.createTempFile(target.getParent(), TEMP_FILE_PREFIX, ".tmp");
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                final ReadableByteChannel source = Channels.newChannel(stream);
+                long written = 0;
+                while (written < size) {
+                    final long transferred = channel.transferFrom(source, written, size - written);
+                    if (transferred <= 0) {
+                        throw new IOException("Stream ended after %s of %s bytes".formatted(written, size));
+                    }
+                    written += transferred;
+                }
+                channel.force(true);
+            }
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            deleteQuietly(temp);
+            throw new StorageException("Failed to write '%s'".formatted(name), e, false);
+        }
+    }
+
+    private boolean delete(@NotNull Path root, @NotNull String name) {
+        try {
+            return Files.deleteIfExists(resolve(root, name));
+        } catch (IOException e) {
+            throw new StorageException("Failed to delete '%s'".formatted(name), e, false);
+        }
+    }
+
+    // Resolve an object name to a path, refusing names that would escape the bucket's directory
+    @NotNull
+    private static Path resolve(@NotNull Path root, @NotNull String name) {
+        final Path path = root.resolve(name).normalize();
+        if (!path.startsWith(root) || path.equals(root)) {
+            throw new StorageException("Invalid object name '%s'".formatted(name), false);
+        }
+        return path;
+    }
+
+    @NotNull
+    private StoredFile toStoredFile(@NotNull Path path) {
+        try {
+            final BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            final String name = downloads.relativize(path).toString().replace(path.getFileSystem().getSeparator(), "/");
+            return new StoredFile(name, attributes.size(), null, attributes.lastModifiedTime().toInstant());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void deleteQuietly(@Nullable Path path) {
+        if (path == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("Failed to delete temporary file {}", path, e);
+        }
+    }
+
+    // Sends the file with FileChannel.transferTo when written to a response, rather than copying it via the heap
+    private static final class FileChannelResource extends FileSystemResource {
+
+        private FileChannelResource(@NotNull Path path) {
+            super(path);
+        }
+
+        @NotNull
+        @Override
+        public InputStream getInputStream() throws IOException {
+            final FileChannel channel = FileChannel.open(getFile().toPath(), StandardOpenOption.READ);
+            return new FilterInputStream(Channels.newInputStream(channel)) {
+                @Override
+                public long transferTo(OutputStream out) throws IOException {
+                    final WritableByteChannel target = Channels.newChannel(out);
+                    final long start = channel.position();
+                    final long size = channel.size();
+                    long position = start;
+                    while (position < size) {
+                        position += channel.transferTo(position, size - position, target);
+                    }
+                    channel.position(position);
+                    return position - start;
+                }
+            };
+        }
+
+    }
+
+}
@@ -0,0 +1,227 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 William278
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.william278.backend.service;
+
+import com.google.common.collect.AbstractIterator;
+import com.google.common.util.concurrent.RateLimiter;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.extern.slf4j.Slf4j;
+import net.william278.backend.configuration.AppConfiguration;
+import net.william278.backend.database.repository.DownloadRepository;
+import net.william278.backend.exception.StorageException;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+@Slf4j
+@Service
+public class OrphanCollectorService {
+
+    private static final int REPORT_SAMPLE_SIZE = 1000;
+    private static final int REFERENCE_PAGE_SIZE = 5000;
+
+    private final AppConfiguration config;
+    private final DownloadRepository downloads;
+    private final StorageBackend storage;
+    private final RateLimiter deleteLimiter;
+
+    @Autowired
+    public OrphanCollectorService(@NotNull AppConfiguration config, @NotNull DownloadRepository downloads,
+                                  @NotNull StorageBackend storage) {
+        this.config = config;
+        this.downloads = downloads;
+        this.storage = storage;
+        this.deleteLimiter = RateLimiter.create(config.getOrphanCollectionDeletesPerSecond());
+    }
+
+    @Scheduled(initialDelayString = "PT1H", fixedDelayString = "${app.orphan-collection-interval}")
+    public void collectOrphans() {
+        if (!config.isOrphanCollectionEnabled()) {
+            return;
+        }
+
+        try {
+            final Report report = collect(config.isOrphanCollectionDryRun());
+            log.info("Orphan collection {}: scanned {} objects, found {} orphans ({} bytes), deleted {}",
+                    report.dryRun() ? "dry run" : "run", report.scannedObjects(), report.orphanedObjects(),
+                    report.orphanedBytes(), report.deletedObjects());
+        } catch (StorageException e) {
+            log.warn("Failed to collect orphaned download objects", e);
+        }
+    }
+
+    // Diff the downloads bucket against download rows, deleting (or just reporting) unreferenced objects.
+    // Both the bucket listing and referenced names are in UTF-8 byte order, so they can be merged in one pass
+    @NotNull
+    public synchronized Report collect(boolean dryRun) {
+        final Instant startedAt = Instant.now();
+        final Instant cutoff = startedAt.minus(config.getOrphanCollectionMinAge());
+        final Iterator<String> referenced = getReferencedNames();
+        final Iterator<StorageBackend.StoredFile> objects = storage.listVersionObjects();
+        final List<String> batch = new ArrayList<>(StorageBackend.MAX_KEYS_PER_REQUEST);
+        final List<String> sample = new ArrayList<>();
+        long scanned = 0, referencedCount = 0, missing = 0, recent = 0, orphaned = 0, orphanedBytes = 0, deleted = 0;
+        String reference = next(referenced, null);
+        while (objects.hasNext()) {
+            final StorageBackend.StoredFile object = objects.next();
+            scanned++;
+
+            // Skip past references with no object, and keep objects with a reference
+            final String name = object.name();
+            while (reference != null && compare(reference, name) < 0) {
+                missing++;
+                reference = next(referenced, reference);
+            }
+            if (name.equals(reference)) {
+                referencedCount++;
+                reference = next(referenced, reference);
+                continue;
+            }
+
+            // Leave recent objects, which may belong to in-progress uploads
+            if (object.lastModified().isAfter(cutoff)) {
+                recent++;
+                continue;
+            }
+            orphaned++;
+            orphanedBytes += object.size();
+            if (sample.size() < REPORT_SAMPLE_SIZE) {
+                sample.add(name);
+            }
+            if (!dryRun) {
+                batch.add(name);
+                if (batch.size() >= StorageBackend.MAX_KEYS_PER_REQUEST) {
+                    deleted += deleteBatch(batch);
+                }
+            }
+        }
+        while (reference != null) {
+            missing++;
+            reference = next(referenced, reference);
+        }
+        if (!batch.isEmpty()) {
+            deleted += deleteBatch(batch);
+        }
+
+        return new Report(dryRun, startedAt, Instant.now(), scanned, referencedCount, missing, recent,
+                orphaned, orphanedBytes, deleted, sample);
+    }
+
+    // Read referenced names a page at a time, each in its own short query, so no connection is held open
+    // through the rate-limited deletes. A download added behind the current page is missed, but its object is
+    // newer than the cutoff, so it isn't collected either
+    @NotNull
+    private Iterator<String> getReferencedNames() {
+        return new AbstractIterator<>() {
+            private Iterator<String> page = Collections.emptyIterator();
+            private String last = "";
+            private boolean lastPage = false;
+
+            @Override
+            protected String computeNext() {
+                if (!page.hasNext()) {
+                    if (lastPage) {
+                        return endOfData();
+                    }
+                    final List<String> names = downloads.findStoredObjectNamesAfter(last,
+                            PageRequest.ofSize(REFERENCE_PAGE_SIZE));
+                    lastPage = names.size() < REFERENCE_PAGE_SIZE;
+                    if (names.isEmpty()) {
+                        return endOfData();
+                    }
+                    page = names.iterator();
+                }
+                last = page.next();
+                return last;
+            }
+        };
+    }
+
+    // Get the next referenced name, skipping repeats of the current one from downloads sharing a blob
+    @Nullable
+    private static String next(@NotNull Iterator<String> referenced, @Nullable String current) {
+        while (referenced.hasNext()) {
+            final String name = referenced.next();
+            if (!name.equals(current)) {
+                return name;
+            }
+        }
+        return null;
+    }
+
+    // Compare names the way S3 orders keys, by their UTF-8 bytes rather than UTF-16 code units
+    private static int compare(@NotNull String a, @NotNull String b) {
+        return Arrays.compareUnsigned(a.getBytes(StandardCharsets.UTF_8), b.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private int deleteBatch(@NotNull List<String> batch) {
+        deleteLimiter.acquire(batch.size());
+        final int deleted = storage.deleteVersions(List.copyOf(batch));
+        batch.clear();
+        return deleted;
+    }
+
+    @Schema(
+            name = "OrphanReport",
+            description = "A report of download objects in storage that no download references."
+    )
+    public record Report(
+            @Schema(description = "Whether this was a dry run, in which nothing was deleted.")
+            boolean dryRun,
+            @Schema(description = "When the collection started.")
+            @NotNull Instant startedAt,
+            @Schema(description = "When the collection finished.")
+            @NotNull Instant finishedAt,
+            @Schema(description = "The number of objects in the downloads bucket.")
+            long scannedObjects,
+            @Schema(description = "The number of objects referenced by a download.")
+            long referencedObjects,
+            @Schema(description = "The number of downloads whose object is missing from the bucket.")
+            long missingObjects,
+            @Schema(description = "The number of unreferenced objects too recent to collect.")
+            long recentObjects,
+            @Schema(description = "The number of unreferenced objects old enough to collect.")
+            long orphanedObjects,
+            @Schema(description = "The total size of orphaned objects, in bytes.")
+            long orphanedBytes,
+            @Schema(description = "The number of orphaned objects deleted.")
+            long deletedObjects,
+            @Schema(description = "The names of up to 1,000 orphaned objects.")
+            @NotNull List<String> orphans
+    ) {
+    }
+
+}
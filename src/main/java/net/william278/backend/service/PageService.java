@@ -0,0 +1,54 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 William278
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.william278.backend.service;
+
+import lombok.extern.slf4j.Slf4j;
+import net.william278.backend.database.model.Page;
+import net.william278.backend.database.repository.PageRepository;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.stream.StreamSupport;
+
+@Slf4j
+@Service
+public class PageService {
+
+    public PageService(PageRepository pages) {
+        this.normalizePages(pages);
+    }
+
+    // Sort the contents of pages saved before contents were sorted on write, so they can be served as stored
+    private void normalizePages(PageRepository pages) {
+        final List<Page> changed = StreamSupport.stream(pages.findAll().spliterator(), false)
+                .filter(Page::normalizeContents)
+                .toList();
+        if (!changed.isEmpty()) {
+            pages.saveAll(changed);
+            log.info("Normalized the contents of {} project pages", changed.size());
+        }
+    }
+
+}
@@ -0,0 +1,97 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 William278
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.william278.backend.service;
+
+import lombok.extern.slf4j.Slf4j;
+import net.william278.backend.controller.v1.PostController;
+import net.william278.backend.database.model.Post;
+import net.william278.backend.database.repository.PostRepository;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+@Slf4j
+@Service
+public class PostSearchService {
+
+    private final SearchIndex index;
+    private final PostRepository posts;
+
+    public PostSearchService(PostRepository posts) {
+        this.index = new SearchIndex(Post.SEARCH_LOCALE);
+        this.posts = posts;
+    }
+
+    // Build the index once the app has started, rather than holding up startup
+    @EventListener(ApplicationReadyEvent.class)
+    public void indexAll() {
+        final long startedAt = System.currentTimeMillis();
+        final List<PostRepository.Searchable> all = posts.findAllSearchable();
+        all.forEach(post -> index.put(post.getId().toString(), post.getSlug(),
+                Objects.requireNonNullElse(post.getTitle(), ""), Objects.requireNonNullElse(post.getBody(), "")));
+        log.info("Indexed {} posts for search in {}ms", all.size(), System.currentTimeMillis() - startedAt);
+    }
+
+    // Add or update a post in the index; version update posts are indexed by their version's changelog
+    public void index(@NotNull Post post) {
+        index.put(post.getId().toString(), post.getSlug(), post.title(), post.body());
+    }
+
+    public void remove(@NotNull Post post) {
+        index.remove(post.getId().toString());
+    }
+
+    @NotNull
+    public Page<PostController.PostSearchResult> search(@NotNull String query, @NotNull Pageable pageable) {
+        final Page<SearchIndex.Hit> hits = index.search(query, pageable);
+        if (hits.isEmpty()) {
+            return Page.empty(pageable);
+        }
+
+        // Fetch summaries of the page of matching posts in one query, then put them back in rank order
+        final Map<Integer, PostRepository.Summary> found = posts.findSummariesById(hits.stream()
+                        .map(hit -> Integer.valueOf(hit.key())).toList()).stream()
+                .collect(Collectors.toMap(PostRepository.Summary::getId, Function.identity()));
+        return new PageImpl<>(hits.stream()
+                .map(hit -> {
+                    final PostRepository.Summary post = found.get(Integer.valueOf(hit.key()));
+                    return post == null ? null : new PostController.PostSearchResult(
+                            PostController.PostSummary.from(post), hit.score(), hit.snippet());
+                })
+                .filter(Objects::nonNull)
+                .toList(), pageable, hits.getTotalElements());
+    }
+
+}
@@ -0,0 +1,134 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 William278
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.william278.backend.service;
+
+import lombok.extern.slf4j.Slf4j;
+import net.william278.backend.controller.v1.PostController;
+import net.william278.backend.database.model.Post;
+import net.william278.backend.database.model.Project;
+import net.william278.backend.database.repository.PostRepository;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.stereotype.Service;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+@Slf4j
+@Service
+public class PostService {
+
+    private final PostRepository posts;
+    private final PostSearchService search;
+    private final FeedService feeds;
+    private final ProjectBundleService bundles;
+    private volatile Map<String, PostController.PostCategory> categories;
+
+    public PostService(PostRepository posts, PostSearchService search, FeedService feeds,
+                       ProjectBundleService bundles) {
+        this.posts = posts;
+        this.search = search;
+        this.feeds = feeds;
+        this.bundles = bundles;
+
+        this.backfillSummaries();
+        this.updateCategories();
+    }
+
+    @NotNull
+    public List<PostController.PostCategory> getCategories() {
+        return List.copyOf(categories.values());
+    }
+
+    // Count posts, optionally in a category, from the cached category counts
+    public long getPostCount(@Nullable String category) {
+        if (category != null) {
+            final PostController.PostCategory found = categories.get(category.toLowerCase(Locale.ROOT));
+            return found != null ? found.count() : 0;
+        }
+        return categories.values().stream().mapToLong(PostController.PostCategory::count).sum();
+    }
+
+    // Re-read the category counts; posts are written rarely, so one grouped query per write is cheap.
+    // Counts are keyed in lower case, as the database matches categories case-insensitively
+    private void updateCategories() {
+        final Map<String, PostController.PostCategory> updated = new LinkedHashMap<>();
+        posts.getCategoryStats().forEach(stats -> updated.put(stats.getName().toLowerCase(Locale.ROOT),
+                new PostController.PostCategory(stats.getName(), stats.getTotal(), stats.getLatest())));
+        this.categories = Collections.unmodifiableMap(updated);
+    }
+
+    // Store titles and excerpts on posts saved before they were, or recompute them if the way they're derived changed
+    private void backfillSummaries() {
+        final List<Post> stale = posts.findAll().stream().filter(Post::hasStaleSummary).toList();
+        if (stale.isEmpty()) {
+            return;
+        }
+        stale.forEach(Post::updateSummary);
+        posts.saveAll(stale);
+        log.info("Stored titles and excerpts for {} posts", stale.size());
+    }
+
+    // Save a post, updating it in search results and feeds
+    @NotNull
+    public Post save(@NotNull Post post) {
+        final Post saved = posts.save(post);
+        search.index(saved);
+        feeds.onSaved(saved);
+        updateCategories();
+        invalidateBundle(saved);
+        return saved;
+    }
+
+    public void delete(@NotNull Post post) {
+        posts.deleteById(post.getId());
+        search.remove(post);
+        feeds.onDeleted(post);
+        updateCategories();
+        invalidateBundle(post);
+    }
+
+    // Regenerate the stored titles of a project's version update posts, after the project is renamed
+    public void updateVersionTitles(@NotNull Project project) {
+        final List<Post> updates = posts.findAllByAssociatedProjectAndAssociatedVersionUpdateIsNotNull(project);
+        updates.forEach(post -> post.setVersionUpdateTitle(project.getMetadata().getName()));
+        posts.saveAll(updates).forEach(post -> {
+            search.index(post);
+            feeds.onSaved(post);
+        });
+        bundles.invalidate(project.getSlug());
+        log.info("Updated {} version update post titles for project {}", updates.size(), project.getSlug());
+    }
+
+    private void invalidateBundle(@NotNull Post post) {
+        if (post.getAssociatedProject() != null) {
+            bundles.invalidate(post.getAssociatedProject().getSlug());
+        }
+    }
+
+}
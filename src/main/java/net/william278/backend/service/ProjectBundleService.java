@@ -0,0 +1,157 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 William278
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+
+package net.william278.backend.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import jakarta.annotation.PreDestroy;
+import net.william278.backend.controller.v1.PostController;
+import net.william278.backend.controller.v1.ProjectController;
+import net.william278.backend.database.model.Distribution;
+import net.william278.backend.database.model.Page;
+import net.william278.backend.database.model.Project;
+import net.william278.backend.database.model.Version;
+import net.william278.backend.database.repository.*;
+import net.william278.backend.exception.ProjectNotFound;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+// Assembles everything a project landing page needs, caching each project's bundle until one of its parts changes
+@Service
+public class ProjectBundleService {
+
+    private static final int BUNDLE_POSTS = 5;
+    private static final int BUNDLE_THREADS = 4;
+    private static final int MAX_CACHED_BUNDLES = 256;
+
+    // Writes invalidate bundles; the expiry bounds the staleness of download counts, which aren't tracked
+    private static final long BUNDLE_EXPIRY_MINUTES = 5;
+
+    private final ProjectRepository projects;
+    private final PageRepository pages;
+    private final DistributionRepository distributions;
+    private final PostRepository posts;
+    private final VersionRepository versions;
+    private final StatsService stats;
+    private final Cache<String, ProjectController.ProjectBundle> bundles;
+    private final ExecutorService executor;
+
+    public ProjectBundleService(ProjectRepository projects, PageRepository pages, DistributionRepository distributions,
+                                PostRepository posts, VersionRepository versions, StatsService stats) {
+        this.projects = projects;
+        this.pages = pages;
+        this.distributions = distributions;
+        this.posts = posts;
+        this.versions = versions;
+        this.stats = stats;
+        this.bundles = CacheBuilder.newBuilder()
+                .expireAfterWrite(BUNDLE_EXPIRY_MINUTES, TimeUnit.MINUTES)
+                .maximumSize(MAX_CACHED_BUNDLES)
+                .build();
+        this.executor = Executors.newFixedThreadPool(BUNDLE_THREADS, new ThreadFactoryBuilder()
+                .setNameFormat("project-bundle-%d").setDaemon(true).build());
+    }
+
+    @NotNull
+    public ProjectController.ProjectBundle getBundle(@NotNull String projectSlug) {
+        final ProjectController.ProjectBundle bundle;
+        try {
+            bundle = bundles.get(projectSlug, () -> assemble(projectSlug));
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new IllegalStateException("Failed to assemble bundle for project " + projectSlug, e.getCause());
+        }
+
+        // Stats are cached and refreshed separately, so they're attached to a copy of the cached project
+        return new ProjectController.ProjectBundle(bundle.project().withStats(stats), bundle.page(),
+                bundle.distributions(), bundle.posts(), bundle.latestVersions());
+    }
+
+    public void invalidate(@NotNull String projectSlug) {
+        bundles.invalidate(projectSlug);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    // Look the project up once, then fetch its independent parts in parallel
+    @NotNull
+    private ProjectController.ProjectBundle assemble(@NotNull String projectSlug) {
+        final Project project = projects.findById(projectSlug).orElseThrow(ProjectNotFound::new);
+
+        // Reading the channels loads them, so the cached project can still be serialized once its session closes
+        final Set<String> releaseChannels = project.getReleaseChannels();
+
+        final CompletableFuture<Optional<Page>> page = fetch(() -> pages.findByProject(project));
+        final CompletableFuture<List<Distribution>> dists = fetch(
+                () -> distributions.findDistributionsByProjectOrderBySortingWeightDesc(project));
+        final CompletableFuture<List<PostController.PostSummary>> latestPosts = fetch(
+                () -> posts.findSummarySlice(null, projectSlug, PageRequest.of(0, BUNDLE_POSTS))
+                        .map(PostController.PostSummary::from).getContent());
+        final CompletableFuture<Map<String, Version>> latestVersions = fetch(() -> getLatestVersions(project, releaseChannels));
+
+        return new ProjectController.ProjectBundle(
+                project,
+                page.join().orElse(null),
+                dists.join(),
+                latestPosts.join(),
+                latestVersions.join()
+        );
+    }
+
+    // Versions released at the same instant on a channel are told apart by ID, as they are when listed.
+    // Only channels the project lists as its release channels are included
+    @NotNull
+    private Map<String, Version> getLatestVersions(@NotNull Project project, @NotNull Set<String> releaseChannels) {
+        return versions.findLatestOnEachChannel(project).stream()
+                .filter(version -> releaseChannels.contains(version.getChannel().getName()))
+                .collect(Collectors.toMap(
+                        version -> version.getChannel().getName(), version -> version,
+                        (a, b) -> a.getId() > b.getId() ? a : b, TreeMap::new
+                ));
+    }
+
+    @NotNull
+    private <T> CompletableFuture<T> fetch(@NotNull Supplier<T> query) {
+        return CompletableFuture.supplyAsync(query, executor);
+    }
+
+}
@@ -24,24 +24,51 @@
 
 package net.william278.backend.service;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import net.william278.backend.configuration.AppConfiguration;
 import net.william278.backend.controller.v1.DocsController;
 import net.william278.backend.database.model.Project;
 import net.william278.backend.database.repository.ProjectRepository;
 import net.william278.backend.exception.DocsPageNotFound;
+import net.william278.backend.exception.DocsWarming;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.treewalk.CanonicalTreeParser;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 
-import java.io.File;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Optional;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import static net.william278.backend.controller.v1.DocsController.DocsPage.getPageName;
 import static net.william278.backend.controller.v1.DocsController.DocsPage.getPageSlug;
@@ -51,21 +78,50 @@ import static net.william278.backend.controller.v1.DocsController.DocsPage.getPa
 public class ProjectDocsService {
 
     private final Map<String, GitWiki> wikis;
+    private final Set<String> warming;
+    private final Map<String, DocsIndex> indexes;
+    private final Map<String, SearchIndex> searchIndexes;
+    private final Cache<PageKey, CachedPage> pageCache;
+    private final Cache<BundleKey, CachedBundle> bundleCache;
+    private final Map<String, ScheduledFuture<?>> pendingUpdates;
+    private final ScheduledExecutorService updater;
     private final ProjectRepository projects;
     private final AppConfiguration config;
+    private final ObjectMapper mapper;
+    private final DocsRenderer renderer;
+    private final Map<String, List<String>> fallbacks;
 
     public static final String PATTERN = "[a-zA-Z0-9-_.]+";
 
-    public ProjectDocsService(ProjectRepository projects, AppConfiguration config) {
-        this.wikis = new HashMap<>();
+    public ProjectDocsService(ProjectRepository projects, AppConfiguration config, ObjectMapper mapper) {
+        this.wikis = new ConcurrentHashMap<>();
+        this.warming = ConcurrentHashMap.newKeySet();
+        this.indexes = new ConcurrentHashMap<>();
+        this.searchIndexes = new ConcurrentHashMap<>();
+        this.pendingUpdates = new ConcurrentHashMap<>();
+        this.updater = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("docs-update").setDaemon(true).build());
+        this.pageCache = CacheBuilder.newBuilder()
+                .maximumWeight(config.getDocsCacheSize().toBytes())
+                .weigher((PageKey key, CachedPage page) -> page.getSize())
+                .build();
+        this.bundleCache = CacheBuilder.newBuilder()
+                .maximumWeight(config.getDocsCacheSize().toBytes())
+                .weigher((BundleKey key, CachedBundle bundle) -> bundle.gzip().length)
+                .build();
         this.projects = projects;
         this.config = config;
+        this.mapper = mapper;
+        this.renderer = new DocsRenderer();
+        this.fallbacks = parseFallbacks(config.getDocsLocaleFallbacks());
 
         this.cloneWikis();
     }
 
-    public Optional<DocsController.DocsPage> getPage(@NotNull Project project, @NotNull String pageSlug, @NotNull String langCode) {
-        if (!this.wikis.containsKey(project.getSlug())) {
+    public Optional<LocalizedPage> getPage(@NotNull Project project, @NotNull String pageSlug,
+                                           @NotNull String langCode, boolean html) {
+        final DocsIndex index = getIndex(project);
+        if (index == null) {
             return Optional.empty();
         }
 
@@ -74,37 +130,183 @@ public class ProjectDocsService {
             return Optional.empty();
         }
         final String slug = pageSlug.endsWith(".md") ? pageSlug.substring(0, pageSlug.length() - 3) : pageSlug;
-        final String locale = langCode.equalsIgnoreCase(config.getDefaultDocLocale()) ? "" : langCode.toLowerCase();
 
-        // Find a file ignoring case in the project's docs directory at pageSlug
-        final File[] file = getProjectPath(project).toFile().listFiles
-                ((dir, name) -> name.equalsIgnoreCase(String.format("%s%s.md", slug, locale)));
-        if (file == null || file.length == 0) {
+        // Look up the page file, ignoring case, falling back through the locale's chain if it isn't translated
+        return resolve(index, slug, getLocaleChain(langCode))
+                .flatMap(resolved -> getCachedPage(project, resolved.page(), html)
+                        .map(page -> new LocalizedPage(page, resolved.locale())));
+    }
+
+    @NotNull
+    private Optional<CachedPage> getCachedPage(@NotNull Project project, @NotNull IndexedPage page, boolean html) {
+        // Serve the page from the cache if it was read at the current commit, otherwise read and cache it
+        final PageKey cacheKey = new PageKey(project.getSlug(), page.slug());
+        CachedPage cached = pageCache.getIfPresent(cacheKey);
+        if (cached == null || !cached.commit().equals(page.commit())) {
+            cached = DocsController.DocsPage.fromFile(page.file().toFile())
+                    .flatMap(docsPage -> cache(docsPage, page.commit(), page.slug()))
+                    .orElse(null);
+            if (cached == null) {
+                return Optional.empty();
+            }
+            pageCache.put(cacheKey, cached);
+        }
+
+        // Render the page the first time its HTML is asked for at this commit, and keep it with the markdown
+        if (html && cached.html() == null) {
+            cached = render(cached).orElse(null);
+            if (cached == null) {
+                return Optional.empty();
+            }
+            pageCache.put(cacheKey, cached);
+        }
+        return Optional.of(cached);
+    }
+
+    // Get every page served for a locale, gzipped as one payload; built once per wiki commit
+    public Optional<CachedBundle> getBundle(@NotNull Project project, @NotNull String langCode) {
+        final DocsIndex index = getIndex(project);
+        if (index == null) {
+            return Optional.empty();
+        }
+
+        // Bundles are shared by every requested locale that resolves through the same translations
+        final List<String> chain = getLocaleChain(langCode).stream()
+                .filter(locale -> isDefaultLocale(locale) || index.pages().keySet().stream()
+                        .anyMatch(key -> getTranslatedSlug(index, key, locale).isPresent()))
+                .toList();
+        final BundleKey key = new BundleKey(project.getSlug(), chain);
+        final CachedBundle cached = bundleCache.getIfPresent(key);
+        if (cached != null && cached.commit().equals(index.commit())) {
+            return Optional.of(cached);
+        }
+
+        // Collect the pages by the slug they're requested with, with translations standing in for their originals
+        final Set<String> slugs = index.pages().keySet().stream()
+                .map(page -> chain.stream().flatMap(locale -> getTranslatedSlug(index, page, locale).stream())
+                        .findFirst().orElse(page))
+                .collect(Collectors.toSet());
+        final Map<String, DocsController.DocsPage> pages = new TreeMap<>();
+        for (String slug : slugs) {
+            resolve(index, slug, chain)
+                    .flatMap(resolved -> getCachedPage(project, resolved.page(), false))
+                    .ifPresent(page -> pages.put(slug, page.page()));
+        }
+        if (pages.isEmpty()) {
+            return Optional.empty();
+        }
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream gzip = new GZIPOutputStream(bytes)) {
+            mapper.writeValue(gzip, new DocsController.DocsBundle(index.commit(), pages));
+        } catch (IOException e) {
+            log.warn("Failed to build docs bundle for project {}", project.getSlug(), e);
             return Optional.empty();
         }
-        return DocsController.DocsPage.fromFile(file[0]);
+        final CachedBundle bundle = new CachedBundle(bytes.toByteArray(), index.commit(), chain);
+        bundleCache.put(key, bundle);
+        return Optional.of(bundle);
+    }
+
+    // Find the first page for a slug along a locale chain
+    @NotNull
+    private Optional<ResolvedPage> resolve(@NotNull DocsIndex index, @NotNull String slug,
+                                           @NotNull List<String> chain) {
+        for (String locale : chain) {
+            final IndexedPage page = index.pages().get(DocsIndex.getKey(slug, getLocaleSuffix(locale)));
+            if (page != null) {
+                return Optional.of(new ResolvedPage(page, locale));
+            }
+        }
+        return Optional.empty();
+    }
+
+    // The slug of a page key if it's a translation into a locale of another page
+    @NotNull
+    private Optional<String> getTranslatedSlug(@NotNull DocsIndex index, @NotNull String key, @NotNull String locale) {
+        final String suffix = getLocaleSuffix(locale);
+        if (suffix.isEmpty() || key.length() <= suffix.length() || !key.endsWith(suffix)) {
+            return Optional.empty();
+        }
+        return Optional.of(key.substring(0, key.length() - suffix.length())).filter(index.pages()::containsKey);
+    }
+
+    // The locales to look for a page in, in order: the locale itself, its configured fallbacks (or its language,
+    // if it has a region and none are configured), then the default locale
+    @NotNull
+    private List<String> getLocaleChain(@NotNull String langCode) {
+        final String locale = langCode.toLowerCase(Locale.ENGLISH);
+        final List<String> chain = new ArrayList<>();
+        chain.add(locale);
+        chain.addAll(fallbacks.getOrDefault(locale, locale.contains("-")
+                ? List.of(locale.substring(0, locale.indexOf('-'))) : List.of()));
+        chain.add(config.getDefaultDocLocale().toLowerCase(Locale.ENGLISH));
+        return chain.stream().distinct().toList();
+    }
+
+    // Parse chains of the form "pt-br>pt"
+    @NotNull
+    private static Map<String, List<String>> parseFallbacks(@NotNull List<String> chains) {
+        final Map<String, List<String>> fallbacks = new HashMap<>();
+        for (String chain : chains) {
+            final List<String> locales = Arrays.stream(chain.toLowerCase(Locale.ENGLISH).split(">"))
+                    .map(String::trim).filter(locale -> !locale.isEmpty()).toList();
+            if (locales.size() > 1) {
+                fallbacks.put(locales.get(0), locales.subList(1, locales.size()));
+            }
+        }
+        return Map.copyOf(fallbacks);
+    }
+
+    @NotNull
+    public List<DocsController.DocsSearchResult> search(@NotNull Project project, @NotNull String query, int limit) {
+        if (getIndex(project) == null) {
+            return List.of();
+        }
+        final SearchIndex index = this.searchIndexes.get(project.getSlug());
+        if (index == null || limit <= 0) {
+            return List.of();
+        }
+        return index.search(query, PageRequest.of(0, limit)).stream()
+                .map(hit -> new DocsController.DocsSearchResult(hit.slug(), hit.title(), hit.score(), hit.snippet()))
+                .toList();
+    }
+
+    // Get an ETag for the current version of a project's docs, which changes with each new wiki commit
+    public Optional<String> getETag(@NotNull Project project) {
+        return Optional.ofNullable(getIndex(project)).map(index -> "\"%s\"".formatted(index.commit()));
+    }
+
+    // Get a project's docs index, or null if it has none; throws if its wiki is still being cloned
+    @Nullable
+    private DocsIndex getIndex(@NotNull Project project) throws DocsWarming {
+        if (this.warming.contains(project.getSlug())) {
+            throw new DocsWarming();
+        }
+        return this.indexes.get(project.getSlug());
     }
 
     @NotNull
     public Map<String, String> getPages(@NotNull Project project) throws DocsPageNotFound {
-        if (!this.wikis.containsKey(project.getSlug())) {
+        final DocsIndex index = getIndex(project);
+        if (index == null) {
             return Map.of();
         }
-
-        // Find all files in the project's docs directory
-        final File[] files = getProjectPath(project).toFile().listFiles((dir, name) -> name.endsWith(".md"));
-        if (files == null || files.length == 0) {
+        if (index.titles().isEmpty()) {
             throw new DocsPageNotFound();
         }
+        return index.titles();
+    }
 
-        // Return the file names
-        return Stream.of(files)
-                .filter(f -> f.getName().endsWith(".md"))
-                .collect(HashMap::new, (map, file) -> map.put(
-                        getPageSlug(file), getPageName(file)
-                ), HashMap::putAll);
+    private boolean isDefaultLocale(@NotNull String langCode) {
+        return langCode.equalsIgnoreCase(config.getDefaultDocLocale());
     }
 
+    // Pages in the default locale have no suffix after their slug
+    @NotNull
+    private String getLocaleSuffix(@NotNull String langCode) {
+        return isDefaultLocale(langCode) ? "" : langCode.toLowerCase(Locale.ENGLISH);
+    }
 
     @NotNull
     private Path getProjectPath(@NotNull Project project) {
@@ -119,21 +321,214 @@ public class ProjectDocsService {
             log.info("Created docs directory at {}", config.getDocsPath());
         }
 
-        // Clone & pull wikis
-        this.projects.findAll().stream().filter(p -> p.getMetadata().isDocumentation()).forEach(proj -> {
+        // Clone or open wikis in the background, in parallel, so startup doesn't wait on them
+        final List<Project> documented = this.projects.findAll().stream()
+                .filter(p -> p.getMetadata().isDocumentation()).toList();
+        documented.forEach(proj -> this.warming.add(proj.getSlug()));
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.max(config.getDocsInitThreads(), 1),
+                new ThreadFactoryBuilder().setNameFormat("docs-init-%d").setDaemon(true).build());
+        final long startedAt = System.currentTimeMillis();
+        CompletableFuture.allOf(documented.stream().map(proj -> CompletableFuture.runAsync(() -> {
             try {
                 this.wikis.put(proj.getSlug(), new GitWiki(proj.getMetadata().getGithub(), getProjectPath(proj)));
+                reindex(proj, null);
             } catch (GitAPIException | IOException e) {
                 log.error("Failed to initialize wiki for project {}", proj.getSlug(), e);
+            } finally {
+                this.warming.remove(proj.getSlug());
+            }
+        }, executor)).toArray(CompletableFuture[]::new)).whenComplete((ignored, e) -> {
+            executor.shutdown();
+            log.info("Initialized {} project wikis in {}ms", documented.size(), System.currentTimeMillis() - startedAt);
+        });
+    }
+
+    // Debounce wiki updates: each webhook re-arms the timer, so a burst of pushes is pulled once it settles.
+    // A running update can't be cancelled, so a webhook arriving during one queues another pull after it
+    public void scheduleUpdate(@NotNull Project project) {
+        this.pendingUpdates.compute(project.getSlug(), (slug, pending) -> {
+            if (pending != null) {
+                pending.cancel(false);
             }
+            return this.updater.schedule(() -> updateWiki(project),
+                    config.getDocsUpdateDelay().toMillis(), TimeUnit.MILLISECONDS);
         });
     }
 
-    public boolean updateWiki(@NotNull Project project) {
-        if (this.wikis.containsKey(project.getSlug())) {
-            return this.wikis.get(project.getSlug()).update();
+    @PreDestroy
+    public void shutdown() {
+        this.updater.shutdownNow();
+    }
+
+    private void updateWiki(@NotNull Project project) {
+        // The wiki is still being cloned and indexed on an init thread; pull once that's done, so the two don't
+        // race to index it and the older index doesn't replace the newer one
+        if (this.warming.contains(project.getSlug())) {
+            scheduleUpdate(project);
+            return;
+        }
+        final GitWiki wiki = this.wikis.get(project.getSlug());
+        if (wiki == null) {
+            log.warn("Skipping update for project {}, as its wiki isn't initialized", project.getSlug());
+            return;
+        }
+        if (!wiki.update()) {
+            return;
+        }
+        try {
+            final DocsIndex index = this.indexes.get(project.getSlug());
+            if (index == null || !index.commit().equals(wiki.getHead())) {
+                reindex(project, index);
+            }
+        } catch (GitAPIException | IOException e) {
+            log.error("Failed to index wiki for project {}", project.getSlug(), e);
+        }
+    }
+
+    // Build a fresh index of the project's pages, then swap it in so lookups never see a partial index
+    private void reindex(@NotNull Project project, @Nullable DocsIndex previous) throws GitAPIException, IOException {
+        final GitWiki wiki = this.wikis.get(project.getSlug());
+        final String head = wiki.getHead();
+        final SearchIndex search = this.searchIndexes.get(project.getSlug());
+
+        // Build everything from scratch the first time
+        if (previous == null || previous.commit().isEmpty() || search == null) {
+            final DocsIndex index = DocsIndex.build(getProjectPath(project), head, null, Set.of());
+            final SearchIndex built = new SearchIndex(config.getDefaultDocLocale());
+            for (Map.Entry<String, IndexedPage> page : index.pages().entrySet()) {
+                built.put(page.getKey(), page.getValue().slug(), page.getValue().title(),
+                        Files.readString(page.getValue().file()));
+            }
+            this.indexes.put(project.getSlug(), index);
+            this.searchIndexes.put(project.getSlug(), built);
+            pageCache.asMap().keySet().removeIf(key -> key.project().equals(project.getSlug()));
+            bundleCache.asMap().keySet().removeIf(key -> key.project().equals(project.getSlug()));
+            return;
+        }
+
+        // Otherwise, only re-index and evict the pages the pull changed
+        final Set<String> changed = wiki.getChangedFiles(previous.commit()).stream()
+                .filter(path -> path.endsWith(".md") && !path.contains("/"))
+                .map(path -> getPageSlug(Path.of(path).toFile()))
+                .collect(Collectors.toSet());
+        final DocsIndex index = DocsIndex.build(getProjectPath(project), head, previous, changed);
+        this.indexes.put(project.getSlug(), index);
+        for (String key : changed) {
+            final IndexedPage page = index.pages().get(key);
+            if (page == null) {
+                search.remove(key);
+            } else {
+                search.put(key, page.slug(), page.title(), Files.readString(page.file()));
+            }
+            pageCache.invalidate(new PageKey(project.getSlug(), key));
+        }
+        log.info("Updated wiki for project {} to {}, re-indexing {} changed pages", project.getSlug(), head,
+                changed.size());
+    }
+
+    @NotNull
+    private Optional<CachedPage> cache(@NotNull DocsController.DocsPage page, @NotNull String commit,
+                                       @NotNull String key) {
+        try {
+            return Optional.of(new CachedPage(page, mapper.writeValueAsBytes(page), null, commit, key));
+        } catch (JsonProcessingException e) {
+            log.warn("Failed to serialize docs page {}", page.slug(), e);
+            return Optional.empty();
+        }
+    }
+
+    @NotNull
+    private Optional<CachedPage> render(@NotNull CachedPage cached) {
+        try {
+            final byte[] html = mapper.writeValueAsBytes(renderer.render(cached.page()));
+            return Optional.of(new CachedPage(cached.page(), cached.json(), html, cached.commit(), cached.key()));
+        } catch (JsonProcessingException e) {
+            log.warn("Failed to serialize rendered docs page {}", cached.page().slug(), e);
+            return Optional.empty();
         }
-        return false;
+    }
+
+    // Pages by lower-case file name, and the slug to title map listed by getPages, as of a wiki commit
+    private record DocsIndex(@NotNull Map<String, IndexedPage> pages, @NotNull Map<String, String> titles,
+                             @NotNull String commit) {
+
+        // Pages unchanged since the previous index keep the commit they were last changed at
+        @NotNull
+        private static DocsIndex build(@NotNull Path directory, @NotNull String commit, @Nullable DocsIndex previous,
+                                       @NotNull Set<String> changed) throws IOException {
+            final Map<String, IndexedPage> pages = new HashMap<>();
+            try (Stream<Path> files = Files.list(directory)) {
+                files.filter(file -> file.getFileName().toString().endsWith(".md") && Files.isRegularFile(file))
+                        .forEach(file -> {
+                            final String key = getPageSlug(file.toFile());
+                            final IndexedPage unchanged = previous != null && !changed.contains(key)
+                                    ? previous.pages().get(key) : null;
+                            pages.put(key, new IndexedPage(file, key, getPageName(file.toFile()),
+                                    unchanged != null ? unchanged.commit() : commit));
+                        });
+            }
+            return new DocsIndex(Map.copyOf(pages), pages.values().stream()
+                    .collect(Collectors.toUnmodifiableMap(IndexedPage::slug, IndexedPage::title)), commit);
+        }
+
+        @NotNull
+        private static String getKey(@NotNull String slug, @NotNull String locale) {
+            return (slug + locale).toLowerCase(Locale.ENGLISH);
+        }
+
+    }
+
+    private record IndexedPage(@NotNull Path file, @NotNull String slug, @NotNull String title,
+                               @NotNull String commit) {
+    }
+
+    private record PageKey(@NotNull String project, @NotNull String page) {
+    }
+
+    // A docs page with its serialized JSON, and rendered HTML page JSON once requested, as of the commit it
+    // was last changed at
+    public record CachedPage(@NotNull DocsController.DocsPage page, byte[] json, byte @Nullable [] html,
+                             @NotNull String commit, @NotNull String key) {
+
+        @NotNull
+        public String getETag(boolean html) {
+            return "\"%s-%s%s\"".formatted(commit, key, html ? "-html" : "");
+        }
+
+        private int getSize() {
+            return json.length + (html != null ? html.length : 0) + page.content().length() * 2;
+        }
+
+    }
+
+    private record ResolvedPage(@NotNull IndexedPage page, @NotNull String locale) {
+    }
+
+    // A cached docs page, with the locale it was found in
+    public record LocalizedPage(@NotNull CachedPage page, @NotNull String locale) {
+    }
+
+    private record BundleKey(@NotNull String project, @NotNull List<String> locales) {
+    }
+
+    // A gzipped docs bundle, with the locales its pages are drawn from in order, as of the wiki commit it was
+    // built at
+    public record CachedBundle(byte[] gzip, @NotNull String commit, @NotNull List<String> locales) {
+
+        @NotNull
+        public String getETag() {
+            return "\"%s-bundle-%s\"".formatted(commit, String.join("-", locales));
+        }
+
+        // For clients that don't accept gzip
+        public byte[] decompress() {
+            try (InputStream stream = new GZIPInputStream(new ByteArrayInputStream(gzip))) {
+                return stream.readAllBytes();
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to decompress docs bundle", e);
+            }
+        }
+
     }
 
     public static final class GitWiki {
@@ -142,9 +537,11 @@ public class ProjectDocsService {
 
         private GitWiki(@NotNull String github, @NotNull Path cloneDest) throws GitAPIException, IOException {
             if (!cloneDest.toFile().exists()) {
+                // Only the latest revision is served, so skip fetching the wiki's history
                 this.git = Git.cloneRepository()
                         .setURI(String.format("%s.wiki.git", github))
                         .setDirectory(cloneDest.toFile())
+                        .setDepth(1)
                         .call();
             } else {
                 this.git = Git.open(cloneDest.toFile());
@@ -161,6 +558,29 @@ public class ProjectDocsService {
             }
         }
 
+        // Get the paths of files added, modified or deleted since a commit
+        @NotNull
+        public Set<String> getChangedFiles(@NotNull String fromCommit) throws GitAPIException, IOException {
+            final Repository repository = this.git.getRepository();
+            try (ObjectReader reader = repository.newObjectReader()) {
+                final CanonicalTreeParser oldTree = new CanonicalTreeParser();
+                oldTree.reset(reader, repository.resolve(fromCommit + "^{tree}"));
+                final CanonicalTreeParser newTree = new CanonicalTreeParser();
+                newTree.reset(reader, repository.resolve(Constants.HEAD + "^{tree}"));
+                return this.git.diff().setOldTree(oldTree).setNewTree(newTree).call().stream()
+                        .flatMap(entry -> Stream.of(entry.getOldPath(), entry.getNewPath()))
+                        .filter(path -> !path.equals(DiffEntry.DEV_NULL))
+                        .collect(Collectors.toSet());
+            }
+        }
+
+        // The ID of the commit the wiki is checked out at, or an empty string if the wiki has no commits
+        @NotNull
+        public String getHead() throws IOException {
+            final ObjectId head = this.git.getRepository().resolve(Constants.HEAD);
+            return head == null ? "" : head.name();
+        }
+
     }
 
 }
@@ -24,38 +24,78 @@
 
 package net.william278.backend.service;
 
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Multimap;
 import io.minio.*;
 import io.minio.errors.*;
 import io.minio.http.Method;
+import io.minio.messages.DeleteError;
+import io.minio.messages.DeleteObject;
+import io.minio.messages.Item;
+import io.minio.messages.ListPartsResult;
+import io.minio.messages.Part;
+import io.minio.messages.Upload;
+import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import net.william278.backend.configuration.AppConfiguration;
 import net.william278.backend.database.model.Asset;
+import net.william278.backend.exception.StorageException;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Service;
+import org.springframework.util.DigestUtils;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.security.GeneralSecurityException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
-import java.util.Optional;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
 
 @Slf4j
 @Service
-public class S3Service {
+@ConditionalOnProperty(prefix = "app", name = "storage-backend", havingValue = "s3", matchIfMissing = true)
+public class S3Service implements StorageBackend {
 
+    // S3 rejects multipart parts smaller than 5MiB (except the last), and uploads with more than 10,000 parts
+    private static final long MIN_PART_SIZE = 5L * 1024 * 1024;
+    private static final int MAX_PARTS = 10_000;
+    private static final int PART_UPLOAD_ATTEMPTS = 3;
+    private static final String NO_SUCH_KEY = "NoSuchKey";
+
+    // Error codes S3 returns for throttled or temporarily failing requests, which are safe to retry
+    private static final Set<String> TRANSIENT_ERROR_CODES = Set.of(
+            "InternalError", "ServiceUnavailable", "SlowDown", "RequestTimeout"
+    );
+
+    @Getter
     private final boolean enabled;
 
     private MinioClient client;
+    private MultipartClient multipartClient;
     private AppConfiguration config;
+    private long partSize;
+    private int uploadThreads;
 
     @Autowired
     public S3Service(@NotNull AppConfiguration config) {
         this.enabled = config.getS3AccessKey() != null && config.getS3SecretKey() != null
                 && !config.getS3AccessKey().isEmpty() && !config.getS3SecretKey().isEmpty();
         if (!enabled) {
+            log.warn("S3 credentials are not set, so files will not be stored. "
+                     + "Set STORAGE_BACKEND=filesystem to store files on local disk instead");
             return;
         }
 
@@ -64,129 +104,430 @@ public class S3Service {
                 .endpoint(config.getS3Endpoint())
                 .credentials(config.getS3AccessKey(), config.getS3SecretKey())
                 .build();
+        final long timeout = config.getStorageTimeout().toMillis();
+        this.client.setTimeout(timeout, timeout, timeout);
+        this.multipartClient = new MultipartClient(MinioAsyncClient.builder()
+                .endpoint(config.getS3Endpoint())
+                .credentials(config.getS3AccessKey(), config.getS3SecretKey())
+                .build());
+        this.multipartClient.setTimeout(timeout, timeout, timeout);
+        this.partSize = Math.max(config.getS3PartSize().toBytes(), MIN_PART_SIZE);
+        this.uploadThreads = Math.max(config.getS3UploadThreads(), 1);
     }
 
+    @Override
     public Optional<String> getTranscriptUrl(long ticketNumber) {
         if (!enabled) {
             log.info("S3 disabled, Skipping getting transcript URL for ticket #{}", ticketNumber);
             return Optional.empty();
         }
 
-        try {
-            return Optional.of(client.getPresignedObjectUrl(GetPresignedObjectUrlArgs.builder()
-                    .expiry(Integer.parseInt(config.getS3TicketsExpiry()))
-                    .bucket(config.getS3TicketsBucket())
-                    .object(getTicketObjectName(ticketNumber))
-                    .method(Method.GET)
-                    .build()));
-        } catch (ErrorResponseException | InsufficientDataException | InternalException | InvalidKeyException |
-                 InvalidResponseException | IOException | NoSuchAlgorithmException | XmlParserException |
-                 ServerException e) {
-            log.warn("Failed to fetch ticket transcript #{}", ticketNumber, e);
-        }
-        return Optional.empty();
+        return Optional.of(call("fetch ticket transcript #%s".formatted(ticketNumber),
+                () -> client.getPresignedObjectUrl(GetPresignedObjectUrlArgs.builder()
+                        .expiry(Integer.parseInt(config.getS3TicketsExpiry()))
+                        .bucket(config.getS3TicketsBucket())
+                        .object(StorageBackend.getTicketObjectName(ticketNumber))
+                        .method(Method.GET)
+                        .build())));
     }
 
+    @Override
     public void deleteTranscript(long ticketNumber) {
         if (!enabled) {
             log.info("S3 disabled, Skipping deleting transcript #{}", ticketNumber);
             return;
         }
 
-        try {
+        call("delete ticket transcript #%s".formatted(ticketNumber), () -> {
             client.removeObject(RemoveObjectArgs.builder()
                     .bucket(config.getS3TicketsBucket())
-                    .object(getTicketObjectName(ticketNumber))
+                    .object(StorageBackend.getTicketObjectName(ticketNumber))
                     .build());
-        } catch (ErrorResponseException | InsufficientDataException | InternalException | InvalidKeyException |
-                 InvalidResponseException | IOException | NoSuchAlgorithmException | XmlParserException |
-                 ServerException e) {
-            log.warn("Failed to delete ticket transcript #{}", ticketNumber, e);
-        }
+            return null;
+        });
     }
 
+    @Override
     public void uploadAsset(@NotNull MultipartFile file, @NotNull Asset asset) {
         if (!enabled) {
             log.info("S3 disabled, skipping asset upload for {}", asset.getName());
             return;
         }
 
-        try {
-            client.putObject(PutObjectArgs.builder()
-                    .stream(file.getInputStream(), file.getSize(), -1)
-                    .bucket(config.getS3AssetsBucket())
-                    .object(asset.getName())
-                    .contentType(file.getContentType())
-                    .build());
-        } catch (ErrorResponseException | InsufficientDataException | InternalException | InvalidKeyException |
-                 InvalidResponseException | IOException | NoSuchAlgorithmException | XmlParserException |
-                 ServerException e) {
-            log.warn("Failed to create or upload asset '{}'", asset.getName(), e);
-        }
+        call("upload asset '%s'".formatted(asset.getName()), () -> {
+            try (InputStream stream = file.getInputStream()) {
+                putObject(config.getS3AssetsBucket(), asset.getName(), stream, file.getSize(), file.getContentType());
+            }
+            return null;
+        });
     }
 
+    @Override
     public void deleteAsset(@NotNull Asset asset) {
         if (!enabled) {
             log.info("S3 disabled, skipping asset deletion for {}", asset.getName());
             return;
         }
 
-        try {
+        call("delete asset '%s'".formatted(asset.getName()), () -> {
             client.removeObject(RemoveObjectArgs.builder()
                     .object(asset.getName())
                     .bucket(config.getS3AssetsBucket())
                     .build());
-        } catch (ErrorResponseException | InsufficientDataException | InternalException | InvalidKeyException |
-                 InvalidResponseException | IOException | NoSuchAlgorithmException | XmlParserException |
-                 ServerException e) {
-            log.warn("Failed to delete asset '{}'", asset.getName(), e);
-        }
+            return null;
+        });
     }
 
-    public void uploadVersion(@NotNull InputStream versionStream, long size,
-                              @NotNull String contentType, @NotNull String objectName) {
+    @Override
+    public boolean uploadVersion(@NotNull InputStream versionStream, long size,
+                                 @NotNull String contentType, @NotNull String objectName) {
         if (!enabled) {
             log.info("S3 disabled, skipping version upload for {}", objectName);
-            return;
+            return false;
         }
 
-        try {
+        return call("upload version '%s'".formatted(objectName), () -> {
+            putObject(config.getS3DownloadsBucket(), objectName, versionStream, size, contentType);
+            return true;
+        });
+    }
+
+    @Override
+    public Optional<Resource> downloadVersion(@NotNull String objectName) {
+        if (!enabled) {
+            log.info("S3 disabled, cannot download version {}", objectName);
+            return Optional.empty();
+        }
+
+        return call("download version '%s'".formatted(objectName), () -> {
+            try {
+                return Optional.of(new InputStreamResource(client.getObject(GetObjectArgs.builder()
+                        .bucket(config.getS3DownloadsBucket())
+                        .object(objectName)
+                        .build())));
+            } catch (ErrorResponseException e) {
+                if (e.errorResponse().code().equals(NO_SUCH_KEY)) {
+                    return Optional.empty();
+                }
+                throw e;
+            }
+        });
+    }
+
+    @Override
+    public Optional<String> getVersionUploadUrl(@NotNull String objectName) {
+        if (!enabled) {
+            log.info("S3 disabled, cannot create upload URL for version {}", objectName);
+            return Optional.empty();
+        }
+
+        return Optional.of(call("create upload URL for version '%s'".formatted(objectName),
+                () -> client.getPresignedObjectUrl(GetPresignedObjectUrlArgs.builder()
+                        .expiry(config.getS3UploadsExpiry())
+                        .bucket(config.getS3DownloadsBucket())
+                        .object(objectName)
+                        .method(Method.PUT)
+                        .build())));
+    }
+
+    @Override
+    public Optional<StoredFile> statVersion(@NotNull String objectName) {
+        if (!enabled) {
+            log.info("S3 disabled, cannot stat version {}", objectName);
+            return Optional.empty();
+        }
+
+        return call("stat version '%s'".formatted(objectName), () -> {
+            try {
+                final StatObjectResponse stat = client.statObject(StatObjectArgs.builder()
+                        .bucket(config.getS3DownloadsBucket())
+                        .object(objectName)
+                        .build());
+                return Optional.of(new StoredFile(stat.object(), stat.size(), stat.etag().replace("\"", ""),
+                        stat.lastModified().toInstant()));
+            } catch (ErrorResponseException e) {
+                if (e.errorResponse().code().equals(NO_SUCH_KEY)) {
+                    return Optional.empty();
+                }
+                throw e;
+            }
+        });
+    }
+
+    // Lazily list every object in the downloads bucket, fetching a page at a time
+    @NotNull
+    @Override
+    public Iterator<StoredFile> listVersionObjects() {
+        if (!enabled) {
+            log.info("S3 disabled, cannot list version objects");
+            return Collections.emptyIterator();
+        }
+
+        final Iterator<Item> items = Iterators.transform(client.listObjects(ListObjectsArgs.builder()
+                .bucket(config.getS3DownloadsBucket())
+                .recursive(true)
+                .maxKeys(MAX_KEYS_PER_REQUEST)
+                .build()).iterator(), result -> call("list version objects", result::get));
+        return Iterators.transform(Iterators.filter(items, item -> !item.isDir()), item -> new StoredFile(
+                item.objectName(), item.size(), item.etag() == null ? null : item.etag().replace("\"", ""),
+                item.lastModified().toInstant()
+        ));
+    }
+
+    // Delete the whole batch in a single request
+    @Override
+    public int deleteVersions(@NotNull List<String> objectNames) {
+        if (!enabled) {
+            log.info("S3 disabled, skipping deleting {} version objects", objectNames.size());
+            return 0;
+        }
+        if (objectNames.size() > MAX_KEYS_PER_REQUEST) {
+            throw new IllegalArgumentException("Cannot delete more than %s objects at once".formatted(MAX_KEYS_PER_REQUEST));
+        }
+
+        int failed = 0;
+        for (Result<DeleteError> result : client.removeObjects(RemoveObjectsArgs.builder()
+                .bucket(config.getS3DownloadsBucket())
+                .objects(objectNames.stream().map(DeleteObject::new).toList())
+                .build())) {
+            final DeleteError error = call("delete %s version objects".formatted(objectNames.size()), result::get);
+            log.warn("Failed to delete version object '{}': {}", error.objectName(), error.message());
+            failed++;
+        }
+        return objectNames.size() - failed;
+    }
+
+    // Upload an object, splitting it into parallel multipart uploads if it's larger than a single part
+    private void putObject(@NotNull String bucket, @NotNull String objectName, @NotNull InputStream stream,
+                           long size, @Nullable String contentType)
+            throws MinioException, IOException, GeneralSecurityException, InterruptedException {
+        final long objectPartSize = Math.max(partSize, Math.ceilDiv(size, MAX_PARTS));
+        if (size <= objectPartSize) {
             client.putObject(PutObjectArgs.builder()
-                    .stream(versionStream, size, -1)
-                    .bucket(config.getS3DownloadsBucket())
+                    .stream(stream, size, objectPartSize)
+                    .bucket(bucket)
                     .object(objectName)
                     .contentType(contentType)
                     .build());
-        } catch (ErrorResponseException | InsufficientDataException | InternalException | InvalidKeyException |
-                 InvalidResponseException | IOException | NoSuchAlgorithmException | XmlParserException |
-                 ServerException e) {
-            log.warn("Failed to upload version '{}'", objectName, e);
+            return;
+        }
+
+        // Resume a previously failed upload of this object if there is one, otherwise start a new one
+        final Multimap<String, String> headers = contentType != null
+                ? ImmutableMultimap.of("Content-Type", contentType) : null;
+        final Map<Integer, Part> existingParts = new HashMap<>();
+        String uploadId = findIncompleteUpload(bucket, objectName, existingParts).orElse(null);
+        if (uploadId == null) {
+            uploadId = multipartClient.createUpload(bucket, objectName, headers);
+        } else {
+            log.info("Resuming multipart upload of '{}' ({} parts already uploaded)", objectName, existingParts.size());
+        }
+
+        try {
+            uploadParts(bucket, objectName, uploadId, stream, size, objectPartSize, existingParts);
+        } catch (Exception e) {
+            // Transient failures, including being interrupted when an attempt times out, leave the upload incomplete
+            // so the next attempt can resume it; others abort it
+            if (isTransient(e)) {
+                log.warn("Multipart upload {} of '{}' failed and was left incomplete to be resumed. Abandoned uploads "
+                         + "are only removed by an AbortIncompleteMultipartUpload lifecycle rule on the bucket",
+                        uploadId, objectName);
+            } else {
+                abortUpload(bucket, objectName, uploadId);
+            }
+            throw e;
         }
     }
 
-    @Nullable
-    public InputStream downloadVersion(@NotNull String objectName) {
-        if (!enabled) {
-            log.info("S3 disabled, cannot download version {}", objectName);
-            return null;
+    // Read parts sequentially, upload them in parallel with a bounded number in flight, then complete the upload
+    private void uploadParts(@NotNull String bucket, @NotNull String objectName, @NotNull String uploadId,
+                             @NotNull InputStream stream, long size, long objectPartSize,
+                             @NotNull Map<Integer, Part> existingParts)
+            throws MinioException, IOException, GeneralSecurityException, InterruptedException {
+        final int partCount = (int) Math.ceilDiv(size, objectPartSize);
+        final Semaphore inFlight = new Semaphore(uploadThreads);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final List<CompletableFuture<Part>> parts = new ArrayList<>(partCount);
+        for (int partNumber = 1; partNumber <= partCount; partNumber++) {
+            final int length = (int) Math.min(objectPartSize, size - (partNumber - 1) * objectPartSize);
+            final byte[] data = stream.readNBytes(length);
+            if (data.length != length) {
+                throw new IOException("Stream ended before reading %s bytes for '%s'".formatted(size, objectName));
+            }
+
+            // Skip parts that were already uploaded with identical contents
+            final Part existing = existingParts.get(partNumber);
+            if (existing != null && existing.partSize() == length
+                && existing.etag().replace("\"", "").equals(DigestUtils.md5DigestAsHex(data))) {
+                parts.add(CompletableFuture.completedFuture(new Part(partNumber, existing.etag())));
+                continue;
+            }
+
+            inFlight.acquire();
+            if (failure.get() != null) {
+                inFlight.release();
+                break;
+            }
+            parts.add(uploadPart(bucket, objectName, uploadId, partNumber, data, 1).whenComplete((part, e) -> {
+                if (e != null) {
+                    failure.compareAndSet(null, e);
+                }
+                inFlight.release();
+            }));
         }
 
+        // Wait interruptibly, so an attempt that has timed out stops here
         try {
-            return client.getObject(GetObjectArgs.builder()
-                    .bucket(config.getS3DownloadsBucket())
-                    .object(objectName)
-                    .build());
-        } catch (ErrorResponseException | InsufficientDataException | InternalException | InvalidKeyException |
-                 InvalidResponseException | IOException | NoSuchAlgorithmException | XmlParserException |
-                 ServerException e) {
-            log.warn("Failed to download version '{}'", objectName, e);
+            CompletableFuture.allOf(parts.toArray(CompletableFuture[]::new)).get();
+        } catch (ExecutionException e) {
+            failure.compareAndSet(null, e.getCause());
+        }
+        if (failure.get() != null) {
+            throw new CompletionException(failure.get());
+        }
+        multipartClient.completeUpload(bucket, objectName, uploadId,
+                parts.stream().map(CompletableFuture::join).toArray(Part[]::new));
+    }
+
+    private void abortUpload(@NotNull String bucket, @NotNull String objectName, @NotNull String uploadId) {
+        try {
+            multipartClient.abortUpload(bucket, objectName, uploadId);
+            log.warn("Aborted multipart upload {} of '{}'", uploadId, objectName);
+        } catch (Exception e) {
+            log.warn("Failed to abort multipart upload {} of '{}'", uploadId, objectName, e);
         }
-        return null;
     }
 
     @NotNull
-    private static String getTicketObjectName(long ticketNumber) {
-        return String.format("ticket-%04d".formatted(ticketNumber));
+    private CompletableFuture<Part> uploadPart(@NotNull String bucket, @NotNull String objectName,
+                                               @NotNull String uploadId, int partNumber, byte[] data, int attempt) {
+        try {
+            return multipartClient.uploadPart(bucket, objectName, uploadId, partNumber, data)
+                    .thenApply(response -> new Part(partNumber, response.etag()))
+                    .exceptionallyCompose(e -> {
+                        if (attempt >= PART_UPLOAD_ATTEMPTS) {
+                            return CompletableFuture.failedFuture(e);
+                        }
+                        log.warn("Failed to upload part #{} of '{}' (attempt {}), retrying",
+                                partNumber, objectName, attempt, e);
+                        return uploadPart(bucket, objectName, uploadId, partNumber, data, attempt + 1);
+                    });
+        } catch (InsufficientDataException | InternalException | InvalidKeyException | IOException |
+                 NoSuchAlgorithmException | XmlParserException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    // Find the latest incomplete multipart upload for an object, populating the map with its uploaded parts
+    @NotNull
+    private Optional<String> findIncompleteUpload(@NotNull String bucket, @NotNull String objectName,
+                                                  @NotNull Map<Integer, Part> uploadedParts)
+            throws InsufficientDataException, InternalException, InvalidKeyException, IOException,
+            NoSuchAlgorithmException, XmlParserException {
+        final Optional<String> uploadId = multipartClient.listUploads(bucket, objectName).stream()
+                .filter(upload -> upload.objectName().equals(objectName))
+                .max(Comparator.comparing(Upload::initiated))
+                .map(Upload::uploadId);
+        if (uploadId.isEmpty()) {
+            return uploadId;
+        }
+
+        ListPartsResult page;
+        int marker = 0;
+        do {
+            page = multipartClient.listParts(bucket, objectName, uploadId.get(), marker);
+            page.partList().forEach(part -> uploadedParts.put(part.partNumber(), part));
+            marker = page.nextPartNumberMarker();
+        } while (page.isTruncated());
+        return uploadId;
+    }
+
+    // Run an S3 request, wrapping any failure in a StorageException flagged with whether it's worth retrying
+    private <T> T call(@NotNull String action, @NotNull S3Call<T> call) {
+        try {
+            return call.call();
+        } catch (InterruptedException e) {
+            // Attempts are interrupted when they time out, and are retried like any other timeout
+            Thread.currentThread().interrupt();
+            throw new StorageException("Interrupted while trying to %s".formatted(action), e, true);
+        } catch (MinioException | IOException | GeneralSecurityException | CompletionException e) {
+            throw new StorageException("Failed to %s".formatted(action), e, isTransient(e));
+        }
+    }
+
+    private static boolean isTransient(@NotNull Throwable e) {
+        if (e instanceof CompletionException && e.getCause() != null) {
+            return isTransient(e.getCause());
+        }
+        if (e instanceof ErrorResponseException response) {
+            return TRANSIENT_ERROR_CODES.contains(response.errorResponse().code());
+        }
+        return e instanceof ServerException || e instanceof IOException
+               || e instanceof InterruptedException || e instanceof TimeoutException;
+    }
+
+    @FunctionalInterface
+    private interface S3Call<T> {
+        T call() throws MinioException, IOException, GeneralSecurityException, InterruptedException;
+    }
+
+    // Exposes MinIO's low-level multipart upload API. It lives as long as the service and is never used in a
+    // try-with-resources block, so javac's warning about close() throwing InterruptedException doesn't apply
+    @SuppressWarnings("try")
+    private static final class MultipartClient extends MinioAsyncClient {
+
+        private MultipartClient(@NotNull MinioAsyncClient client) {
+            super(client);
+        }
+
+        @NotNull
+        private String createUpload(@NotNull String bucket, @NotNull String objectName,
+                                    @Nullable Multimap<String, String> headers)
+                throws InsufficientDataException, InternalException, InvalidKeyException, IOException,
+                NoSuchAlgorithmException, XmlParserException {
+            return createMultipartUploadAsync(bucket, null, objectName, headers, null)
+                    .join().result().uploadId();
+        }
+
+        @NotNull
+        private CompletableFuture<UploadPartResponse> uploadPart(@NotNull String bucket, @NotNull String objectName,
+                                                                 @NotNull String uploadId, int partNumber,
+                                                                 byte[] data)
+                throws InsufficientDataException, InternalException, InvalidKeyException, IOException,
+                NoSuchAlgorithmException, XmlParserException {
+            return uploadPartAsync(bucket, null, objectName, data, data.length, uploadId, partNumber, null, null);
+        }
+
+        private void completeUpload(@NotNull String bucket, @NotNull String objectName, @NotNull String uploadId,
+                                    @NotNull Part[] parts)
+                throws InsufficientDataException, InternalException, InvalidKeyException, IOException,
+                NoSuchAlgorithmException, XmlParserException {
+            completeMultipartUploadAsync(bucket, null, objectName, uploadId, parts, null, null).join();
+        }
+
+        private void abortUpload(@NotNull String bucket, @NotNull String objectName, @NotNull String uploadId)
+                throws InsufficientDataException, InternalException, InvalidKeyException, IOException,
+                NoSuchAlgorithmException, XmlParserException {
+            abortMultipartUploadAsync(bucket, null, objectName, uploadId, null, null).join();
+        }
+
+        @NotNull
+        private List<Upload> listUploads(@NotNull String bucket, @NotNull String prefix)
+                throws InsufficientDataException, InternalException, InvalidKeyException, IOException,
+                NoSuchAlgorithmException, XmlParserException {
+            return listMultipartUploadsAsync(bucket, null, null, null, null, 1000, prefix, null, null, null)
+                    .join().result().uploads();
+        }
+
+        @NotNull
+        private ListPartsResult listParts(@NotNull String bucket, @NotNull String objectName,
+                                          @NotNull String uploadId, int partNumberMarker)
+                throws InsufficientDataException, InternalException, InvalidKeyException, IOException,
+                NoSuchAlgorithmException, XmlParserException {
+            return listPartsAsync(bucket, null, objectName, 1000, partNumberMarker, uploadId, null, null)
+                    .join().result();
+        }
+
     }
 
 }
@@ -0,0 +1,257 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 William278
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.william278.backend.service;
+
+import net.william278.backend.util.MarkdownUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.web.util.HtmlUtils;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// An inverted index over markdown documents, such as docs pages or posts, ranked with BM25
+public final class SearchIndex {
+
+    private static final Pattern WORD = Pattern.compile("[\\p{L}\\p{N}]+");
+    private static final Set<String> ENGLISH_STOP_WORDS = Set.of(
+            "a", "an", "and", "are", "as", "at", "be", "by", "for", "from", "if", "in", "into", "is", "it",
+            "of", "on", "or", "that", "the", "their", "then", "there", "these", "this", "to", "was", "will", "with"
+    );
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    private static final int TITLE_WEIGHT = 3;
+    private static final int SNIPPET_RADIUS = 80;
+
+    private final boolean english;
+    private final Map<String, Document> documents = new HashMap<>();
+    private final Map<String, Map<String, Integer>> postings = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private long totalLength;
+
+    // Stemming and stop words are only applied if the documents' locale is English
+    public SearchIndex(@NotNull String locale) {
+        this.english = locale.toLowerCase(Locale.ENGLISH).startsWith("en");
+    }
+
+    // Add or replace a document in the index
+    public void put(@NotNull String key, @NotNull String slug, @NotNull String title, @NotNull String markdown) {
+        final String text = MarkdownUtils.toPlainText(markdown);
+        final Map<String, Integer> terms = new HashMap<>();
+        analyze(text).forEach(term -> terms.merge(term, 1, Integer::sum));
+        analyze(title).forEach(term -> terms.merge(term, TITLE_WEIGHT, Integer::sum));
+        final int length = terms.values().stream().mapToInt(Integer::intValue).sum();
+
+        lock.writeLock().lock();
+        try {
+            removeDocument(key);
+            documents.put(key, new Document(slug, title, text, terms, length));
+            terms.forEach((term, frequency) -> postings.computeIfAbsent(term, t -> new HashMap<>()).put(key, frequency));
+            totalLength += length;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(@NotNull String key) {
+        lock.writeLock().lock();
+        try {
+            removeDocument(key);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @NotNull
+    public Page<Hit> search(@NotNull String query, @NotNull Pageable pageable) {
+        final Set<String> terms = new LinkedHashSet<>(analyze(query));
+        if (terms.isEmpty()) {
+            return Page.empty(pageable);
+        }
+
+        lock.readLock().lock();
+        try {
+            if (documents.isEmpty()) {
+                return Page.empty(pageable);
+            }
+
+            // Score each document containing a query term with BM25
+            final double averageLength = (double) totalLength / documents.size();
+            final Map<String, Double> scores = new HashMap<>();
+            for (String term : terms) {
+                final Map<String, Integer> matches = postings.getOrDefault(term, Map.of());
+                final double idf = Math.log(1 + (documents.size() - matches.size() + 0.5) / (matches.size() + 0.5));
+                matches.forEach((key, frequency) -> {
+                    final double norm = K1 * (1 - B + B * documents.get(key).length() / averageLength);
+                    scores.merge(key, idf * frequency * (K1 + 1) / (frequency + norm), Double::sum);
+                });
+            }
+
+            // Only cut snippets for the requested page of results
+            final List<Hit> hits = scores.entrySet().stream()
+                    .sorted(Map.Entry.<String, Double>comparingByValue().reversed())
+                    .skip(pageable.getOffset())
+                    .limit(pageable.getPageSize())
+                    .map(entry -> {
+                        final Document document = documents.get(entry.getKey());
+                        return new Hit(entry.getKey(), document.slug(), document.title(), entry.getValue(),
+                                getSnippet(document.text(), terms));
+                    })
+                    .toList();
+            return new PageImpl<>(hits, pageable, scores.size());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void removeDocument(@NotNull String key) {
+        final Document removed = documents.remove(key);
+        if (removed == null) {
+            return;
+        }
+        removed.terms().keySet().forEach(term -> {
+            final Map<String, Integer> matches = postings.get(term);
+            matches.remove(key);
+            if (matches.isEmpty()) {
+                postings.remove(term);
+            }
+        });
+        totalLength -= removed.length();
+    }
+
+    // Tokenize into lower-case words, dropping stop words and stemming them if the index is English
+    @NotNull
+    private List<String> analyze(@NotNull String text) {
+        final List<String> terms = new ArrayList<>();
+        final Matcher matcher = WORD.matcher(text);
+        while (matcher.find()) {
+            final String term = normalize(matcher.group());
+            if (term != null) {
+                terms.add(term);
+            }
+        }
+        return terms;
+    }
+
+    @Nullable
+    private String normalize(@NotNull String word) {
+        final String lower = word.toLowerCase(Locale.ROOT);
+        if (lower.length() < 2 || (english && ENGLISH_STOP_WORDS.contains(lower))) {
+            return null;
+        }
+        return english ? stem(lower) : lower;
+    }
+
+    // Light English suffix stripping, so e.g. "homes", "teleporting" and "teleported" match "home" and "teleport"
+    @NotNull
+    private static String stem(@NotNull String word) {
+        if (word.length() <= 3) {
+            return word;
+        }
+        if (word.endsWith("ies") && word.length() > 4) {
+            return word.substring(0, word.length() - 3) + "y";
+        }
+        if (word.endsWith("ing") && word.length() > 5) {
+            return undouble(word.substring(0, word.length() - 3));
+        }
+        if (word.endsWith("ed") && word.length() > 4) {
+            return undouble(word.substring(0, word.length() - 2));
+        }
+        if (word.endsWith("ly") && word.length() > 4) {
+            return word.substring(0, word.length() - 2);
+        }
+        if (word.endsWith("es") && (word.endsWith("ches") || word.endsWith("shes") || word.endsWith("sses")
+                                    || word.endsWith("xes"))) {
+            return word.substring(0, word.length() - 2);
+        }
+        if (word.endsWith("s") && !word.endsWith("ss") && !word.endsWith("us")) {
+            return word.substring(0, word.length() - 1);
+        }
+        return word;
+    }
+
+    @NotNull
+    private static String undouble(@NotNull String stem) {
+        final int length = stem.length();
+        if (length > 2 && stem.charAt(length - 1) == stem.charAt(length - 2)
+            && "lsz".indexOf(stem.charAt(length - 1)) < 0) {
+            return stem.substring(0, length - 1);
+        }
+        return stem;
+    }
+
+    // Cut an HTML-escaped excerpt around the first matching word, wrapping matches in <mark> tags
+    @NotNull
+    private String getSnippet(@NotNull String text, @NotNull Set<String> terms) {
+        final List<int[]> matches = new ArrayList<>();
+        final Matcher matcher = WORD.matcher(text);
+        while (matcher.find()) {
+            final String term = normalize(matcher.group());
+            if (term != null && terms.contains(term)) {
+                matches.add(new int[]{matcher.start(), matcher.end()});
+            }
+        }
+
+        final int anchor = matches.isEmpty() ? 0 : matches.get(0)[0];
+        int start = Math.max(0, anchor - SNIPPET_RADIUS);
+        int end = Math.min(text.length(), anchor + SNIPPET_RADIUS);
+        while (start > 0 && !Character.isWhitespace(text.charAt(start - 1))) {
+            start--;
+        }
+        while (end < text.length() && !Character.isWhitespace(text.charAt(end))) {
+            end++;
+        }
+
+        final StringBuilder snippet = new StringBuilder(start > 0 ? "…" : "");
+        int position = start;
+        for (int[] match : matches) {
+            if (match[0] < start || match[1] > end) {
+                continue;
+            }
+            snippet.append(HtmlUtils.htmlEscape(text.substring(position, match[0])))
+                    .append("<mark>").append(HtmlUtils.htmlEscape(text.substring(match[0], match[1])))
+                    .append("</mark>");
+            position = match[1];
+        }
+        snippet.append(HtmlUtils.htmlEscape(text.substring(position, end)));
+        return snippet.append(end < text.length() ? "…" : "").toString().strip();
+    }
+
+    // A matching document, with an HTML-escaped excerpt wrapping matched words in <mark> tags
+    public record Hit(@NotNull String key, @NotNull String slug, @NotNull String title, double score,
+                      @NotNull String snippet) {
+    }
+
+    private record Document(@NotNull String slug, @NotNull String title, @NotNull String text,
+                            @NotNull Map<String, Integer> terms, int length) {
+    }
+
+}
@@ -0,0 +1,79 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 William278
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.william278.backend.service;
+
+import net.william278.backend.database.model.Asset;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.core.io.Resource;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.InputStream;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+
+// Where assets, downloads and ticket transcripts are stored; failures are thrown as a StorageException
+public interface StorageBackend {
+
+    int MAX_KEYS_PER_REQUEST = 1000;
+
+    Optional<String> getTranscriptUrl(long ticketNumber);
+
+    void deleteTranscript(long ticketNumber);
+
+    void uploadAsset(@NotNull MultipartFile file, @NotNull Asset asset);
+
+    void deleteAsset(@NotNull Asset asset);
+
+    boolean uploadVersion(@NotNull InputStream versionStream, long size,
+                          @NotNull String contentType, @NotNull String objectName);
+
+    Optional<Resource> downloadVersion(@NotNull String objectName);
+
+    // Returns empty if the backend can't issue upload URLs for clients to upload to directly
+    Optional<String> getVersionUploadUrl(@NotNull String objectName);
+
+    Optional<StoredFile> statVersion(@NotNull String objectName);
+
+    // Lists every stored version object, in key order
+    @NotNull
+    Iterator<StoredFile> listVersionObjects();
+
+    // Delete a batch of up to 1,000 version objects, returning how many were deleted
+    int deleteVersions(@NotNull List<String> objectNames);
+
+    boolean isEnabled();
+
+    @NotNull
+    static String getTicketObjectName(long ticketNumber) {
+        return "ticket-%04d".formatted(ticketNumber);
+    }
+
+    record StoredFile(@NotNull String name, long size, @Nullable String etag, @NotNull Instant lastModified) {
+    }
+
+}
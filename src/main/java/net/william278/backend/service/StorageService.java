@@ -0,0 +1,341 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 William278
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.william278.backend.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import net.william278.backend.configuration.AppConfiguration;
+import net.william278.backend.database.model.Asset;
+import net.william278.backend.exception.StorageException;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+// Runs storage backend requests on bounded per-operation pools, so a slow S3 endpoint can't tie up request threads
+@Slf4j
+@Service
+public class StorageService {
+
+    // Signed transcript URLs are reused until this long before they expire
+    private static final Duration TRANSCRIPT_URL_MARGIN = Duration.ofMinutes(5);
+    private static final int MAX_CACHED_TRANSCRIPT_URLS = 10_000;
+
+    private final StorageBackend backend;
+    private final Cache<Long, String> transcriptUrls;
+    private final Map<Operation, ThreadPoolExecutor> executors = new EnumMap<>(Operation.class);
+    private final Duration timeout;
+    private final Duration transferTimeout;
+    private final Duration retryBackoff;
+    private final int maxAttempts;
+
+    @Autowired
+    public StorageService(@NotNull AppConfiguration config, @NotNull StorageBackend backend) {
+        this.backend = backend;
+        this.timeout = config.getStorageTimeout();
+        this.transferTimeout = config.getStorageTransferTimeout();
+        this.retryBackoff = config.getStorageRetryBackoff();
+        this.maxAttempts = Math.max(config.getStorageMaxAttempts(), 1);
+
+        final long urlExpiry = config.getS3TicketsExpiry() == null ? 0 : Long.parseLong(config.getS3TicketsExpiry());
+        this.transcriptUrls = CacheBuilder.newBuilder()
+                .expireAfterWrite(Math.max(urlExpiry - TRANSCRIPT_URL_MARGIN.toSeconds(), urlExpiry / 2),
+                        TimeUnit.SECONDS)
+                .maximumSize(MAX_CACHED_TRANSCRIPT_URLS)
+                .build();
+
+        // Requests beyond each pool's queue are rejected outright rather than left to pile up
+        final int threads = Math.max(config.getStorageMaxConcurrency(), 1);
+        for (Operation operation : Operation.values()) {
+            final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                    threads, threads, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(Math.max(config.getStorageQueueSize(), 1)),
+                    new ThreadFactoryBuilder().setNameFormat("storage-%s-%%d".formatted(operation.getName()))
+                            .setDaemon(true).build(),
+                    new ThreadPoolExecutor.AbortPolicy()
+            );
+            executor.allowCoreThreadTimeOut(true);
+            executors.put(operation, executor);
+        }
+    }
+
+    @NotNull
+    public CompletableFuture<Optional<String>> getTranscriptUrl(long ticketNumber) {
+        final String cached = transcriptUrls.getIfPresent(ticketNumber);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(Optional.of(cached));
+        }
+        return submit(Operation.METADATA, "get transcript URL for ticket #%s".formatted(ticketNumber),
+                () -> backend.getTranscriptUrl(ticketNumber), null).thenApply(url -> {
+            url.ifPresent(signed -> transcriptUrls.put(ticketNumber, signed));
+            return url;
+        });
+    }
+
+    // Get the transcript URLs of several tickets, signing any that aren't cached together as one request
+    @NotNull
+    public CompletableFuture<Map<Long, String>> getTranscriptUrls(@NotNull Collection<Long> ticketNumbers) {
+        final Map<Long, String> urls = new HashMap<>(transcriptUrls.getAllPresent(ticketNumbers));
+        final List<Long> unsigned = ticketNumbers.stream().filter(number -> !urls.containsKey(number)).toList();
+        if (unsigned.isEmpty()) {
+            return CompletableFuture.completedFuture(urls);
+        }
+        return submit(Operation.METADATA, "get transcript URLs for %s tickets".formatted(unsigned.size()), () -> {
+            final Map<Long, String> signed = new HashMap<>();
+            unsigned.forEach(number -> backend.getTranscriptUrl(number).ifPresent(url -> signed.put(number, url)));
+            return signed;
+        }, null).thenApply(signed -> {
+            transcriptUrls.putAll(signed);
+            urls.putAll(signed);
+            return urls;
+        });
+    }
+
+    @NotNull
+    public CompletableFuture<Void> deleteTranscript(long ticketNumber) {
+        transcriptUrls.invalidate(ticketNumber);
+        return submit(Operation.DELETE, "delete transcript #%s".formatted(ticketNumber), () -> {
+            backend.deleteTranscript(ticketNumber);
+            return null;
+        }, null);
+    }
+
+    @NotNull
+    public CompletableFuture<Void> uploadAsset(@NotNull MultipartFile file, @NotNull Asset asset) {
+        return submit(Operation.UPLOAD, "upload asset '%s'".formatted(asset.getName()), () -> {
+            backend.uploadAsset(file, asset);
+            return null;
+        }, null);
+    }
+
+    @NotNull
+    public CompletableFuture<Void> deleteAsset(@NotNull Asset asset) {
+        return submit(Operation.DELETE, "delete asset '%s'".formatted(asset.getName()), () -> {
+            backend.deleteAsset(asset);
+            return null;
+        }, null);
+    }
+
+    // The source is re-opened for each attempt, so a retried upload always starts from the beginning
+    @NotNull
+    public CompletableFuture<Boolean> uploadVersion(@NotNull InputStreamSource source, long size,
+                                                    @NotNull String contentType, @NotNull String objectName) {
+        return submit(Operation.UPLOAD, "upload version '%s'".formatted(objectName), () -> {
+            try (InputStream stream = source.getInputStream()) {
+                return backend.uploadVersion(stream, size, contentType, objectName);
+            } catch (IOException e) {
+                throw new StorageException("Failed to read version '%s'".formatted(objectName), e, false);
+            }
+        }, null);
+    }
+
+    @NotNull
+    public CompletableFuture<Optional<Resource>> downloadVersion(@NotNull String objectName) {
+        return submit(Operation.DOWNLOAD, "download version '%s'".formatted(objectName),
+                () -> backend.downloadVersion(objectName),
+                resource -> resource.ifPresent(StorageService::closeQuietly));
+    }
+
+    // Read a version's contents on the download pool, so processing them is bounded like any other transfer
+    @NotNull
+    public <T> CompletableFuture<Optional<T>> readVersion(@NotNull String objectName, @NotNull StreamReader<T> reader) {
+        return submit(Operation.DOWNLOAD, "read version '%s'".formatted(objectName), transferTimeout,
+                () -> backend.downloadVersion(objectName).map(resource -> {
+                    try (InputStream stream = resource.getInputStream()) {
+                        return reader.read(stream);
+                    } catch (IOException e) {
+                        throw new StorageException("Failed to read version '%s'".formatted(objectName), e, true);
+                    }
+                }), null);
+    }
+
+    @NotNull
+    public CompletableFuture<Optional<String>> getVersionUploadUrl(@NotNull String objectName) {
+        return submit(Operation.METADATA, "create upload URL for version '%s'".formatted(objectName),
+                () -> backend.getVersionUploadUrl(objectName), null);
+    }
+
+    @NotNull
+    public CompletableFuture<Optional<StorageBackend.StoredFile>> statVersion(@NotNull String objectName) {
+        return submit(Operation.METADATA, "stat version '%s'".formatted(objectName),
+                () -> backend.statVersion(objectName), null);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executors.values().forEach(ExecutorService::shutdown);
+    }
+
+    // Run a storage request, retrying transient failures; abandoned results are passed to the discard callback
+    @NotNull
+    private <T> CompletableFuture<T> submit(@NotNull Operation operation, @NotNull String action,
+                                            @NotNull Supplier<T> request, @Nullable Consumer<T> discard) {
+        return submit(operation, action, operation == Operation.UPLOAD ? transferTimeout : timeout, request, discard);
+    }
+
+    @NotNull
+    private <T> CompletableFuture<T> submit(@NotNull Operation operation, @NotNull String action,
+                                            @NotNull Duration limit, @NotNull Supplier<T> request,
+                                            @Nullable Consumer<T> discard) {
+        return attempt(operation, action, limit, request, discard, 1).whenComplete((result, e) -> {
+            if (e != null) {
+                log.warn("Failed to {}", action, unwrap(e));
+            }
+        });
+    }
+
+    @NotNull
+    private <T> CompletableFuture<T> attempt(@NotNull Operation operation, @NotNull String action,
+                                             @NotNull Duration limit, @NotNull Supplier<T> request,
+                                             @Nullable Consumer<T> discard,
+                                             int attempt) {
+        final Attempt<T> running = new Attempt<>(request);
+        try {
+            executors.get(operation).execute(running);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(
+                    new StorageException("Too many pending requests to %s".formatted(action), e, false));
+        }
+
+        return running.result.copy().orTimeout(limit.toMillis(), TimeUnit.MILLISECONDS).exceptionallyCompose(e -> {
+            Throwable cause = unwrap(e);
+            CompletableFuture<Void> stopped = CompletableFuture.completedFuture(null);
+            if (cause instanceof TimeoutException) {
+                // Interrupt the request, and make sure whatever it returns if it carries on anyway is released
+                stopped = running.cancel();
+                if (discard != null) {
+                    running.result.thenAccept(discard);
+                }
+                cause = new StorageException("Timed out trying to %s".formatted(action), cause, true);
+            }
+            if (!(cause instanceof StorageException failure) || !failure.isTransientFailure()
+                || attempt >= maxAttempts) {
+                return CompletableFuture.failedFuture(cause);
+            }
+
+            // Back off exponentially with full jitter, so retries from concurrent requests don't arrive in step.
+            // A timed-out attempt is waited on first, so a retried upload never races it writing the same object
+            final long delay = ThreadLocalRandom.current().nextLong(retryBackoff.toMillis() * (1L << (attempt - 1)) + 1);
+            log.info("Failed to {} (attempt {}/{}), retrying in {}ms", action, attempt, maxAttempts, delay);
+            return stopped.thenComposeAsync(ignored -> attempt(operation, action, limit, request, discard, attempt + 1),
+                    CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS));
+        });
+    }
+
+    @NotNull
+    private static Throwable unwrap(@NotNull Throwable e) {
+        return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+    }
+
+    private static void closeQuietly(@NotNull Resource resource) {
+        try {
+            resource.getInputStream().close();
+        } catch (IOException e) {
+            log.debug("Failed to close abandoned storage stream", e);
+        }
+    }
+
+    @FunctionalInterface
+    public interface StreamReader<T> {
+
+        T read(@NotNull InputStream stream) throws IOException;
+
+    }
+
+    // A request run on a pool thread, which can be interrupted once it has timed out
+    private static final class Attempt<T> implements Runnable {
+
+        private final Supplier<T> request;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private final CompletableFuture<Void> finished = new CompletableFuture<>();
+        private Thread thread;
+        private boolean cancelled;
+
+        private Attempt(@NotNull Supplier<T> request) {
+            this.request = request;
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                if (cancelled) {
+                    finished.complete(null);
+                    return;
+                }
+                thread = Thread.currentThread();
+            }
+            try {
+                result.complete(request.get());
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            } finally {
+                // Clear any interrupt under the lock, so it can't leak into the pool thread's next task
+                synchronized (this) {
+                    thread = null;
+                    Thread.interrupted();
+                }
+                finished.complete(null);
+            }
+        }
+
+        // Interrupt the request, completing once it has stopped
+        @NotNull
+        private synchronized CompletableFuture<Void> cancel() {
+            cancelled = true;
+            if (thread != null) {
+                thread.interrupt();
+            }
+            return finished;
+        }
+
+    }
+
+    private enum Operation {
+        UPLOAD,
+        DOWNLOAD,
+        DELETE,
+        METADATA;
+
+        @NotNull
+        private String getName() {
+            return name().toLowerCase();
+        }
+    }
+
+}
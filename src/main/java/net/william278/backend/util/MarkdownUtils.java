@@ -0,0 +1,131 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 William278
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.william278.backend.util;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import org.commonmark.ext.gfm.strikethrough.StrikethroughExtension;
+import org.commonmark.ext.gfm.tables.TablesExtension;
+import org.commonmark.node.*;
+import org.commonmark.parser.Parser;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public class MarkdownUtils {
+
+    private static final Parser PARSER = Parser.builder()
+            .extensions(List.of(TablesExtension.create(), StrikethroughExtension.create()))
+            .build();
+
+    // Parse markdown and keep only its text, dropping raw HTML and code blocks, and collapse whitespace
+    @NotNull
+    public static String toPlainText(@NotNull String markdown) {
+        final StringBuilder text = new StringBuilder();
+        PARSER.parse(markdown).accept(new PlainTextVisitor(text));
+        return text.toString().replaceAll("\\s+", " ").strip();
+    }
+
+    private static final class PlainTextVisitor extends AbstractVisitor {
+
+        private final StringBuilder text;
+
+        private PlainTextVisitor(@NotNull StringBuilder text) {
+            this.text = text;
+        }
+
+        @Override
+        public void visit(Text node) {
+            text.append(node.getLiteral());
+        }
+
+        @Override
+        public void visit(Code node) {
+            text.append(node.getLiteral());
+        }
+
+        @Override
+        public void visit(SoftLineBreak node) {
+            text.append(' ');
+        }
+
+        @Override
+        public void visit(HardLineBreak node) {
+            text.append(' ');
+        }
+
+        @Override
+        public void visit(FencedCodeBlock node) {
+        }
+
+        @Override
+        public void visit(IndentedCodeBlock node) {
+        }
+
+        @Override
+        public void visit(HtmlBlock node) {
+        }
+
+        @Override
+        public void visit(HtmlInline node) {
+        }
+
+        @Override
+        public void visit(Paragraph node) {
+            separate(node);
+        }
+
+        @Override
+        public void visit(Heading node) {
+            separate(node);
+        }
+
+        @Override
+        public void visit(ListItem node) {
+            separate(node);
+        }
+
+        // Table cells and other extension nodes
+        @Override
+        public void visit(CustomBlock node) {
+            separate(node);
+        }
+
+        @Override
+        public void visit(CustomNode node) {
+            separate(node);
+        }
+
+        // Keep the text of adjacent blocks from running together
+        private void separate(@NotNull Node node) {
+            text.append(' ');
+            visitChildren(node);
+            text.append(' ');
+        }
+
+    }
+
+}
@@ -0,0 +1,149 @@
+/*
+ * MIT License
+ *
+ * Copyright (c) 2024 William278
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package net.william278.backend.database.repository;
+
+import net.william278.backend.database.model.*;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.data.domain.PageRequest;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// Checks version listings take a fixed number of queries, however many versions and downloads are listed
+@DataJpaTest(properties = {
+        "spring.jpa.properties.hibernate.generate_statistics=true",
+        "app.api-base-url=http://localhost",
+        "app.frontend-base-url=http://localhost",
+        "app.cookie-max-age-days=1"
+})
+class VersionRepositoryTest {
+
+    private static final String PROJECT = "project";
+    private static final String CHANNEL = "release";
+    private static final int DOWNLOADS_PER_VERSION = 3;
+    private static final int PAGE_SIZE = 20;
+
+    @Autowired
+    private TestEntityManager entities;
+
+    @Autowired
+    private VersionRepository versions;
+
+    private Statistics statistics;
+    private List<Integer> distributionIds;
+    private int created;
+
+    @BeforeEach
+    void setUp() {
+        statistics = entities.getEntityManager().getEntityManagerFactory()
+                .unwrap(SessionFactory.class).getStatistics();
+        final Project project = entities.persist(Project.builder().slug(PROJECT).build());
+        entities.persist(new Channel(CHANNEL));
+        distributionIds = IntStream.range(0, DOWNLOADS_PER_VERSION)
+                .mapToObj(i -> entities.persist(Distribution.builder().project(project).name("dist-" + i).build()))
+                .map(Distribution::getId)
+                .toList();
+        entities.flush();
+    }
+
+    @Test
+    void versionDownloadsAreBatchLoaded() {
+        final int small = countQueriesLoadingDownloads(createVersions(2));
+        final int large = countQueriesLoadingDownloads(createVersions(PAGE_SIZE));
+        assertEquals(small, large);
+    }
+
+    @Test
+    void listingTakesThreeQueries() {
+        createVersions(PAGE_SIZE);
+        final Project project = entities.find(Project.class, PROJECT);
+        final Channel channel = entities.find(Channel.class, CHANNEL);
+        statistics.clear();
+
+        // The page of versions, then their downloads, then their changelogs
+        final List<VersionRepository.Listing> page = versions.findListings(project, channel,
+                PageRequest.of(0, PAGE_SIZE));
+        final List<Integer> ids = page.stream().map(VersionRepository.Listing::getId).toList();
+        final List<VersionRepository.ListedDownload> downloads = versions.findListedDownloads(ids);
+        downloads.forEach(listed -> listed.getDownload().getDistribution().getName());
+        final List<VersionRepository.Changelog> changelogs = versions.findChangelogs(ids);
+
+        assertEquals(PAGE_SIZE, page.size());
+        assertEquals(PAGE_SIZE * DOWNLOADS_PER_VERSION, downloads.size());
+        assertEquals(PAGE_SIZE, changelogs.size());
+        assertEquals(3, statistics.getPrepareStatementCount());
+    }
+
+    // Load versions by ID and read all their downloads, returning how many statements that took
+    private int countQueriesLoadingDownloads(@NotNull List<Integer> ids) {
+        statistics.clear();
+        versions.findAllById(ids).forEach(version -> version.getDownloads()
+                .forEach(download -> download.getDistribution().getName()));
+        return (int) statistics.getPrepareStatementCount();
+    }
+
+    // Save versions with a download on each distribution, then clear the session so they're loaded afresh
+    @NotNull
+    private List<Integer> createVersions(int count) {
+        final Project project = entities.find(Project.class, PROJECT);
+        final Channel channel = entities.find(Channel.class, CHANNEL);
+        final List<Distribution> distributions = distributionIds.stream()
+                .map(id -> entities.find(Distribution.class, id))
+                .toList();
+        final List<Integer> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final String name = "1.0." + created++;
+            ids.add(entities.persist(Version.builder()
+                    .project(project)
+                    .channel(channel)
+                    .name(name)
+                    .timestamp(Instant.now().minusSeconds(created))
+                    .downloads(distributions.stream().map(distribution -> Download.builder()
+                                    .distribution(distribution)
+                                    .name("%s-%s.jar".formatted(distribution.getName(), name))
+                                    .md5("d41d8cd98f00b204e9800998ecf8427e")
+                                    .fileSize(1)
+                                    .build())
+                            .collect(Collectors.toCollection(ArrayList::new)))
+                    .build()).getId());
+        }
+        entities.flush();
+        entities.clear();
+        return ids;
+    }
+
+}